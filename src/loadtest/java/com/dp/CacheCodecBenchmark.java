@@ -0,0 +1,144 @@
+package com.dp;
+
+import com.dp.entity.Blog;
+import com.dp.entity.Shop;
+import com.dp.entity.ShopType;
+import com.dp.utils.CacheCodec;
+import com.dp.utils.CacheCodecs;
+import com.dp.utils.RedisData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存序列化方式的JMH基准测试: 商铺、博客、商铺类型列表三种数据分别用hutool、Jackson JSON、Smile编码和解码
+ * 由 {@link CacheCodecLoadTest} 启动
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CacheCodecBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Payload {
+
+        @Param({"hutool", "jackson", "smile"})
+        public String codecName;
+
+        @Param({"shop", "blog", "shopTypes"})
+        public String payload;
+
+        CacheCodec codec;
+
+        Object value;
+
+        byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            codec = codecOf(codecName);
+            value = "shop".equals(payload) ? shop() : "blog".equals(payload) ? blog() : shopTypes();
+            bytes = codec.encode(value);
+        }
+
+        Object decode() {
+            if (value instanceof List) {
+                return codec.decodeList(bytes, ShopType.class);
+            }
+            return codec.decode(bytes, value.getClass());
+        }
+    }
+
+    /**
+     * 逻辑过期和提前刷新只用于单个对象
+     */
+    @State(Scope.Benchmark)
+    public static class Wrapped {
+
+        @Param({"hutool", "jackson", "smile"})
+        public String codecName;
+
+        @Param({"shop", "blog"})
+        public String payload;
+
+        CacheCodec codec;
+
+        Class<?> type;
+
+        byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            codec = codecOf(codecName);
+            RedisData<Object> redisData = new RedisData<>();
+            redisData.setData("shop".equals(payload) ? shop() : blog());
+            redisData.setDelta(12L);
+            redisData.setExpireTime(LocalDateTime.now().withNano(0));
+            type = redisData.getData().getClass();
+            bytes = codec.encodeWrapped(redisData);
+        }
+    }
+
+    @Benchmark
+    public void encode(Payload state, Blackhole blackhole) {
+        blackhole.consume(state.codec.encode(state.value));
+    }
+
+    @Benchmark
+    public void decode(Payload state, Blackhole blackhole) {
+        blackhole.consume(state.decode());
+    }
+
+    @Benchmark
+    public void decodeWrapped(Wrapped state, Blackhole blackhole) {
+        blackhole.consume(state.codec.decodeWrapped(state.bytes, state.type));
+    }
+
+    private static CacheCodec codecOf(String name) {
+        switch (name) {
+            case "hutool":
+                return CacheCodecs.HUTOOL_JSON;
+            case "jackson":
+                return CacheCodecs.JACKSON_JSON;
+            case "smile":
+                return CacheCodecs.SMILE;
+            default:
+                throw new IllegalArgumentException("未知的序列化方式: " + name);
+        }
+    }
+
+    private static Shop shop() {
+        return new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L).setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37)
+                .setOpenHours("10:00-22:00").setCreateTime(LocalDateTime.now().withNano(0));
+    }
+
+    private static Blog blog() {
+        return new Blog().setId(7L).setShopId(1L).setUserId(2L).setTitle("探店").setContent("好吃")
+                .setImages("/imgs/blogs/1.jpg,/imgs/blogs/2.jpg").setLiked(10).setComments(3)
+                .setCreateTime(LocalDateTime.now().withNano(0));
+    }
+
+    private static List<ShopType> shopTypes() {
+        List<ShopType> types = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            ShopType type = new ShopType();
+            type.setId((long) i);
+            type.setName("类型" + i);
+            type.setIcon("/types/icon" + i + ".png");
+            type.setSort(i);
+            types.add(type);
+        }
+        return types;
+    }
+}
@@ -0,0 +1,35 @@
+package com.dp;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 运行 {@link CacheCodecBenchmark},结果输出到控制台
+ * 运行: mvn -P loadtest test -Dtest=CacheCodecLoadTest -Dloadtest.jmh.iterations=5
+ */
+class CacheCodecLoadTest {
+
+    private static final int ITERATIONS = Integer.getInteger("loadtest.jmh.iterations", 2);
+
+    @Test
+    void codecThroughput() throws Exception {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getName())
+                .forks(1)
+                .warmupIterations(1)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(ITERATIONS)
+                .measurementTime(TimeValue.seconds(1))
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        assertFalse(results.isEmpty(), "没有运行任何基准测试");
+    }
+}
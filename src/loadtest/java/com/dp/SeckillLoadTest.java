@@ -0,0 +1,353 @@
+package com.dp;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.dp.dto.OrderStatus;
+import com.dp.dto.Result;
+import com.dp.entity.SeckillVoucher;
+import com.dp.entity.Voucher;
+import com.dp.service.ISeckillVoucherService;
+import com.dp.service.IVoucherOrderService;
+import com.dp.service.IVoucherService;
+import com.dp.utils.RedisIdWorker;
+import com.dp.utils.OrderShards;
+import com.dp.utils.SeckillStockShards;
+import com.dp.utils.SnowflakeIdWorker;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.dp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.dp.utils.RedisConstants.LOGIN_USER_TTL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀压测: 启动本地Redis进程和H2(MySQL模式),用大量用户并发调用 /voucher-order/seckill/{id}
+ * 报告吞吐量、p50/p99/p999延迟、消息队列的消费耗时,并校验最终订单和库存是否一致
+ * 运行: mvn -P loadtest test -Dloadtest.users=5000 -Dloadtest.stock=1000 -Dloadtest.threads=200
+ */
+@Slf4j
+@DirtiesContext
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.url=jdbc:h2:mem:dp;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.schema=classpath:schema-h2.sql",
+        "spring.datasource.initialization-mode=always",
+        "spring.redis.lettuce.pool.max-active=64",
+        "server.tomcat.threads.max=400",
+        "logging.level.com.dp=info",
+        "dp.seckill.reconcile.enabled=false",
+        "dp.order.shards=4"
+})
+class SeckillLoadTest {
+
+    private static final int USERS = Integer.getInteger("loadtest.users", 5000);
+
+    private static final int STOCK = Integer.getInteger("loadtest.stock", 1000);
+
+    private static final int THREADS = Integer.getInteger("loadtest.threads", 200);
+
+    private static final int IDS_PER_THREAD = Integer.getInteger("loadtest.ids", 5000);
+
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toMillis(120);
+
+    private static RedisServer redisServer;
+
+    @Resource
+    private TestRestTemplate restTemplate;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private OrderShards orderShards;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) throws IOException {
+        int port = freePort();
+        // JVM退出时才停止Redis,此时应用已随@DirtiesContext关闭,消费者不会在Redis关闭后报错
+        redisServer = RedisServer.newRedisServer().port(port).setting("save \"\"").onShutdownForceStop(true).build();
+        redisServer.start();
+        registry.add("spring.redis.host", () -> "127.0.0.1");
+        registry.add("spring.redis.port", () -> port);
+        registry.add("dp.redisson.address", () -> "redis://127.0.0.1:" + port);
+    }
+
+    /**
+     * 分别用1个和4个库存分片跑同样的场景,对比分片前后的吞吐量
+     */
+    @Test
+    void seckillThroughput() throws Exception {
+        List<Report> reports = new ArrayList<>();
+        int scenario = 0;
+        for (int shards : new int[]{1, 4}) {
+            reports.add(runScenario(++scenario, shards));
+        }
+        log.info("\n{}\n{}", Report.HEADER, reports.stream().map(Report::toString).reduce((a, b) -> a + "\n" + b).orElse(""));
+    }
+
+    /**
+     * 对比INCR、号段、Snowflake三种ID生成方式在多线程下的吞吐量
+     */
+    @Test
+    void idGeneratorThroughput() throws Exception {
+        SnowflakeIdWorker disabled = new SnowflakeIdWorker(stringRedisTemplate, new String[0]);
+        SnowflakeIdWorker snowflake = new SnowflakeIdWorker(stringRedisTemplate, new String[]{"bench"});
+        ReflectionTestUtils.invokeMethod(snowflake, "init");
+        RedisIdWorker segment = new RedisIdWorker(stringRedisTemplate, disabled, 1000);
+        try {
+            StringBuilder report = new StringBuilder("生成方式        ids/s");
+            report.append(String.format("%n%-12s %10.0f", "INCR",
+                    measureIds(new RedisIdWorker(stringRedisTemplate, disabled, 1))));
+            report.append(String.format("%n%-12s %10.0f", "segment", measureIds(segment)));
+            report.append(String.format("%n%-12s %10.0f", "snowflake",
+                    measureIds(new RedisIdWorker(stringRedisTemplate, snowflake, 1))));
+            log.info("\n{}", report);
+        } finally {
+            ReflectionTestUtils.invokeMethod(snowflake, "destroy");
+            ReflectionTestUtils.invokeMethod(segment, "destroy");
+        }
+    }
+
+    private double measureIds(RedisIdWorker idWorker) throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> futures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                long[] ids = new long[IDS_PER_THREAD];
+                for (int j = 0; j < IDS_PER_THREAD; j++) {
+                    ids[j] = idWorker.nextId("bench");
+                }
+                return ids;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Set<Long> unique = ConcurrentHashMap.newKeySet();
+        for (Future<long[]> future : futures) {
+            Arrays.stream(future.get()).forEach(unique::add);
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        assertEquals(threads * IDS_PER_THREAD, unique.size(), "生成了重复的ID");
+        return threads * IDS_PER_THREAD / (elapsed / 1e9);
+    }
+
+    private Report runScenario(int scenario, int shards) throws Exception {
+        ReflectionTestUtils.setField(seckillStockShards, "defaultShards", shards);
+        Long voucherId = createVoucher();
+        List<String> tokens = createUsers(scenario * 1_000_000L);
+
+        // 1.并发下单
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] latencies = new long[USERS];
+        Map<String, AtomicInteger> outcomes = new ConcurrentHashMap<>();
+        Map<Long, String> orderTokens = new ConcurrentHashMap<>();
+        List<Future<?>> futures = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            int index = i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                HttpHeaders headers = new HttpHeaders();
+                headers.set("authorization", tokens.get(index));
+                long begin = System.nanoTime();
+                Result result = restTemplate.exchange("/voucher-order/seckill/" + voucherId, HttpMethod.POST,
+                        new HttpEntity<>(headers), Result.class).getBody();
+                latencies[index] = System.nanoTime() - begin;
+                String outcome = result == null ? "无响应"
+                        : Boolean.TRUE.equals(result.getSuccess()) ? "success" : result.getErrorMsg();
+                outcomes.computeIfAbsent(outcome, k -> new AtomicInteger()).incrementAndGet();
+                if ("success".equals(outcome)) {
+                    orderTokens.put(((Number) result.getData()).longValue(), tokens.get(index));
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        int success = outcomes.getOrDefault("success", new AtomicInteger()).get();
+
+        // 2.等待消息队列消费完
+        long drainBegin = System.currentTimeMillis();
+        int dbOrders = 0;
+        while (System.currentTimeMillis() - drainBegin < DRAIN_TIMEOUT) {
+            dbOrders = countOrders(voucherId, "id");
+            Object pending = voucherOrderService.queryOrderQueueStats().get("pending");
+            if (dbOrders >= success && Objects.equals(pending, 0L)) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        long drain = System.currentTimeMillis() - drainBegin;
+
+        // 3.校验订单和库存
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        long redisStock = stringRedisTemplate.opsForValue().multiGet(seckillStockShards.stockKeys(voucherId)).stream()
+                .filter(Objects::nonNull).mapToLong(Long::parseLong).sum();
+        long redisOrders = seckillStockShards.orderKeys(voucherId).stream()
+                .mapToLong(key -> stringRedisTemplate.opsForSet().size(key)).sum();
+        int distinctUsers = countOrders(voucherId, "distinct user_id");
+        boolean consistent = dbOrders == success
+                && distinctUsers == dbOrders
+                && seckillVoucher.getStock() == STOCK - dbOrders
+                && redisStock == STOCK - success
+                && redisOrders == success;
+
+        Arrays.sort(latencies);
+        Report report = new Report(scenario, shards, USERS / (elapsed / 1e9),
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                drain, success, dbOrders, seckillVoucher.getStock(), redisStock, consistent, outcomes);
+        log.info("{}\n{}", Report.HEADER, report);
+        assertTrue(success > 0 && success <= STOCK, "成功下单数异常: " + success);
+        assertTrue(consistent, "订单与库存不一致: " + report);
+        assertOrderStatus(orderTokens);
+        return report;
+    }
+
+    /**
+     * 订单按用户分表,同一用户只在一张分表中,各分表的计数可以直接相加
+     */
+    private int countOrders(Long voucherId, String column) {
+        return orderShards.fanOut(shard -> Collections.singletonList(
+                voucherOrderService.query().select(column).eq("voucher_id", voucherId).count()))
+                .stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * 抽样长轮询订单处理结果,消费完成后应都是已创建
+     */
+    private void assertOrderStatus(Map<Long, String> orderTokens) {
+        orderTokens.entrySet().stream().limit(100).forEach(entry -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("authorization", entry.getValue());
+            Result result = restTemplate.exchange("/voucher-order/" + entry.getKey() + "/status?timeout=5000",
+                    HttpMethod.GET, new HttpEntity<>(headers), Result.class).getBody();
+            assertTrue(result != null && Boolean.TRUE.equals(result.getSuccess()), "查询订单处理结果失败: " + entry.getKey());
+            assertEquals(OrderStatus.CREATED, ((Map<?, ?>) result.getData()).get("status"), "订单处理结果: " + result.getData());
+        });
+    }
+
+    private Long createVoucher() {
+        LocalDateTime beginTime = LocalDateTime.now().minusHours(1);
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("压测秒杀券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(STOCK);
+        voucher.setBeginTime(beginTime);
+        voucher.setEndTime(beginTime.plusHours(2));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    /**
+     * 直接在Redis中写入登录态,每个用户一个token
+     */
+    private List<String> createUsers(long firstUserId) {
+        List<String> tokens = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            tokens.add(UUID.randomUUID().toString(true));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < USERS; i++) {
+                String key = LOGIN_USER_KEY + tokens.get(i);
+                long userId = firstUserId + i;
+                stringConnection.hSet(key, "id", String.valueOf(userId));
+                stringConnection.hSet(key, "nickName", "user_" + userId);
+                stringConnection.expire(key, LOGIN_USER_TTL);
+            }
+            return null;
+        });
+        return tokens;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class Report {
+        private static final String HEADER = StrUtil.format("{} {} {} {} {} {} {} {} {} {} {} {}",
+                "场景", "分片", "请求/秒", "p50(ms)", "p99(ms)", "p999(ms)", "消费耗时(ms)",
+                "成功", "数据库订单", "数据库库存", "Redis库存", "一致");
+
+        private final String line;
+
+        private Report(int scenario, int shards, double throughput, double p50, double p99, double p999, long drain,
+                       int success, int dbOrders, int dbStock, long redisStock, boolean consistent,
+                       Map<String, AtomicInteger> outcomes) {
+            this.line = String.format("%d %d %.0f %.2f %.2f %.2f %d %d %d %d %d %s %s", scenario, shards, throughput,
+                    p50, p99, p999, drain, success, dbOrders, dbStock, redisStock, consistent, outcomes);
+        }
+
+        @Override
+        public String toString() {
+            return line;
+        }
+    }
+}
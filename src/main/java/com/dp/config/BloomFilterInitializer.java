@@ -0,0 +1,64 @@
+package com.dp.config;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.dp.entity.Blog;
+import com.dp.entity.Shop;
+import com.dp.service.IBlogService;
+import com.dp.service.IShopService;
+import com.dp.utils.IdBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.dp.utils.RedisConstants.BLOG_BLOOM_KEY;
+import static com.dp.utils.RedisConstants.SHOP_BLOOM_KEY;
+
+/**
+ * 启动时把商铺和博客的id写入布隆过滤器
+ */
+@Slf4j
+@Component
+public class BloomFilterInitializer implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        seed(SHOP_BLOOM_KEY, shopService, Shop::getId);
+        seed(BLOG_BLOOM_KEY, blogService, Blog::getId);
+    }
+
+    private <T> void seed(String name, IService<T> service, Function<T, Long> idGetter) {
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            // 按id分批读取,避免一次性加载整张表
+            List<T> list = service.query().select("id").gt("id", lastId)
+                    .orderByAsc("id").last("LIMIT " + BATCH_SIZE).list();
+            for (T t : list) {
+                idBloomFilter.add(name, idGetter.apply(t));
+            }
+            total += list.size();
+            if (list.size() < BATCH_SIZE) {
+                break;
+            }
+            lastId = idGetter.apply(list.get(list.size() - 1));
+        }
+        idBloomFilter.markReady(name);
+        log.info("布隆过滤器{}预热完成, 共{}个id, {}", name, total, idBloomFilter.info(name));
+    }
+}
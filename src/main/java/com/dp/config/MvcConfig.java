@@ -2,6 +2,8 @@ package com.dp.config;
 
 import com.dp.utils.LoginInterceptor;
 import com.dp.utils.RefreshTokenInterceptor;
+import com.dp.utils.SeckillWindowInterceptor;
+import com.dp.utils.SeckillWindows;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -15,6 +17,9 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    SeckillWindows seckillWindows;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry
@@ -22,5 +27,6 @@ public class MvcConfig implements WebMvcConfigurer {
                 .excludePathPatterns("/user/code", "/user/login", "/blog/hot", "/shop/**", "/shop-type/**", "/upload/**", "/voucher/**")
                 .order(1);
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new SeckillWindowInterceptor(seckillWindows)).addPathPatterns("/voucher-order/seckill/**").order(2);
     }
 }
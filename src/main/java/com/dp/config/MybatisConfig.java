@@ -2,15 +2,22 @@ package com.dp.config;
 
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
+import com.baomidou.mybatisplus.extension.plugins.inner.DynamicTableNameInnerInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.dp.utils.OrderShards;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Collections;
+
 @Configuration
 public class MybatisConfig {
     @Bean
-    public MybatisPlusInterceptor mybatisPlusInterceptor() {
+    public MybatisPlusInterceptor mybatisPlusInterceptor(OrderShards orderShards) {
         MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
+        // 订单分表,需在分页插件之前
+        interceptor.addInnerInterceptor(new DynamicTableNameInnerInterceptor(
+                Collections.singletonMap(OrderShards.TABLE, orderShards::dynamicTableName)));
         interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL));
         return interceptor;
     }
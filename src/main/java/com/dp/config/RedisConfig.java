@@ -3,17 +3,27 @@ package com.dp.config;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 @Configuration
 public class RedisConfig {
 
     @Bean
-    public RedissonClient redissonClient() {
+    public RedissonClient redissonClient(@Value("${dp.redisson.address:redis://111.229.223.99:6379}") String address) {
         // 配置类
         Config config = new Config();
-        config.useSingleServer().setAddress("redis://111.229.223.99:6379");
+        config.useSingleServer().setAddress(address);
         return Redisson.create(config);
     }
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
 }
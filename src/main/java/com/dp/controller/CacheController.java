@@ -0,0 +1,94 @@
+package com.dp.controller;
+
+
+import com.dp.dto.Result;
+import com.dp.utils.CacheRebuildScheduler;
+import com.dp.utils.HotKeyDetector;
+import com.dp.utils.IdBloomFilter;
+import com.dp.utils.LocalCache;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.dp.utils.RedisConstants.BLOG_BLOOM_KEY;
+import static com.dp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.dp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.dp.utils.RedisConstants.SHOP_BLOOM_KEY;
+
+/**
+ * <p>
+ * 缓存运行状态
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    /**
+     * 按key前缀查询本地缓存的命中、未命中、淘汰次数
+     * @return 统计数据
+     */
+    @GetMapping("/stats")
+    public Result queryLocalCacheStats() {
+        return Result.ok(localCache.stats());
+    }
+
+    /**
+     * 查询布隆过滤器的容量、误判率和内存占用
+     * 对比: 空值缓存方案每个不存在的id都要在Redis中保存一个key, 而布隆过滤器的内存只与预期元素数量有关
+     * @return 各过滤器的统计数据
+     */
+    @GetMapping("/bloom")
+    public Result queryBloomFilterInfo() {
+        Map<String, Object> info = new HashMap<>(2);
+        info.put(SHOP_BLOOM_KEY, idBloomFilter.info(SHOP_BLOOM_KEY));
+        info.put(BLOG_BLOOM_KEY, idBloomFilter.info(BLOG_BLOOM_KEY));
+        return Result.ok(info);
+    }
+
+    /**
+     * 对比布隆过滤器与空值缓存方案在Redis中的实际内存占用
+     * @return 各过滤器的内存、单个空值key的内存、本节点拦截次数及对应的空值key内存
+     */
+    @GetMapping("/bloom/memory")
+    public Result queryBloomFilterMemory() {
+        Map<String, Object> memory = new HashMap<>(2);
+        memory.put(SHOP_BLOOM_KEY, idBloomFilter.memory(SHOP_BLOOM_KEY, CACHE_SHOP_KEY));
+        memory.put(BLOG_BLOOM_KEY, idBloomFilter.memory(BLOG_BLOOM_KEY, CACHE_BLOG_KEY));
+        return Result.ok(memory);
+    }
+
+    /**
+     * 查询当前的热点key
+     * @return 热点key及其最近一个统计窗口内的估计访问次数
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 查询缓存后台重建的队列深度、耗时和失败次数
+     * @return 统计数据
+     */
+    @GetMapping("/rebuild")
+    public Result queryRebuildStats() {
+        return Result.ok(cacheRebuildScheduler.stats());
+    }
+}
@@ -2,10 +2,10 @@ package com.dp.controller;
 
 
 import com.dp.dto.Result;
+import com.dp.entity.ShopType;
 import com.dp.service.IShopTypeService;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
@@ -23,8 +23,32 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
-    @GetMapping("list")
-    public Result queryTypeList() {
-        return typeService.getTypeList();
+    /**
+     * 查询商铺类型列表,直接返回内存中预先序列化好的内容
+     * @return 类型列表
+     */
+    @GetMapping(value = "list", produces = MediaType.APPLICATION_JSON_VALUE)
+    public byte[] queryTypeList() {
+        return typeService.getTypeListBytes();
+    }
+
+    /**
+     * 新增商铺类型
+     * @param shopType 类型数据
+     * @return 类型id
+     */
+    @PostMapping
+    public Result saveType(@RequestBody ShopType shopType) {
+        return typeService.saveType(shopType);
+    }
+
+    /**
+     * 更新商铺类型
+     * @param shopType 类型数据
+     * @return 无
+     */
+    @PutMapping
+    public Result updateType(@RequestBody ShopType shopType) {
+        return typeService.updateType(shopType);
     }
 }
@@ -4,6 +4,7 @@ package com.dp.controller;
 import com.dp.dto.Result;
 import com.dp.entity.Voucher;
 import com.dp.service.IVoucherService;
+import com.dp.utils.SeckillReconciler;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -23,6 +24,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private SeckillReconciler seckillReconciler;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -30,7 +34,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -45,6 +49,26 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存
+     * @param voucherId 优惠券id
+     * @param count 补充的数量
+     * @return 无
+     */
+    @PutMapping("seckill/{id}/stock")
+    public Result addSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        return voucherService.addSeckillStock(voucherId, count);
+    }
+
+    /**
+     * 查询最近一次秒杀数据对账的结果
+     * @return 每张秒杀券Redis与数据库的差异
+     */
+    @GetMapping("seckill/reconcile")
+    public Result querySeckillReconcileReports() {
+        return Result.ok(seckillReconciler.reports());
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -3,10 +3,15 @@ package com.dp.controller;
 
 import com.dp.dto.Result;
 import com.dp.service.IVoucherOrderService;
+import com.dp.utils.RateLimit;
+import com.dp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -26,7 +31,47 @@ public class VoucherOrderController {
     IVoucherOrderService voucherOrderService;
 
     @PostMapping("seckill/{id}")
+    @RateLimit(name = "seckill", key = "#voucherId", rate = 2000, burst = 2000, userRate = 1, userBurst = 2)
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询当前用户的订单
+     * @param orderId 订单id
+     * @return 订单
+     */
+    @GetMapping("{id}")
+    public Result queryOrder(@PathVariable("id") Long orderId) {
+        return voucherOrderService.queryOrder(orderId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 分页查询当前用户的订单
+     * @param current 页码
+     * @return 订单列表
+     */
+    @GetMapping("of/me")
+    public Result queryMyOrders(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+        return voucherOrderService.queryOrdersOfUser(UserHolder.getUser().getId(), current);
+    }
+
+    /**
+     * 查询秒杀订单的处理结果,只读Redis
+     * @param timeout 订单仍在处理中时最多等待的毫秒数,0表示立即返回
+     */
+    @GetMapping("{id}/status")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "timeout", defaultValue = "0") Long timeout) {
+        return voucherOrderService.queryOrderStatus(orderId, UserHolder.getUser().getId(), timeout);
+    }
+
+    /**
+     * 查询订单消息队列的消费情况
+     * @return 消费者数、未确认消息数、积压消息数
+     */
+    @GetMapping("queue")
+    public Result queryOrderQueueStats() {
+        return Result.ok(voucherOrderService.queryOrderQueueStats());
+    }
 }
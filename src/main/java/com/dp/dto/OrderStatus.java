@@ -0,0 +1,35 @@
+package com.dp.dto;
+
+import lombok.Data;
+
+/**
+ * 秒杀订单的异步处理结果
+ */
+@Data
+public class OrderStatus {
+    /**
+     * 已受理,尚未写入数据库
+     */
+    public static final String PENDING = "PENDING";
+    /**
+     * 订单已创建
+     */
+    public static final String CREATED = "CREATED";
+    /**
+     * 订单被拒绝,例如重复下单、库存不足
+     */
+    public static final String REJECTED = "REJECTED";
+    /**
+     * 多次处理失败,已转入死信队列
+     */
+    public static final String FAILED = "FAILED";
+
+    private Long orderId;
+    private Long voucherId;
+    private String status;
+    private String reason;
+
+    public boolean isFinished() {
+        return !PENDING.equals(status);
+    }
+}
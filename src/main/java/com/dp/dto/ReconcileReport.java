@@ -0,0 +1,41 @@
+package com.dp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 一张秒杀券的Redis与MySQL对账结果
+ */
+@Data
+public class ReconcileReport {
+    private Long voucherId;
+    private LocalDateTime checkTime;
+    /**
+     * Redis中没有库存数据,未对账
+     */
+    private Boolean redisMissing;
+    private Long redisStock;
+    private Long redisOrders;
+    private Long dbStock;
+    private Long dbOrders;
+    /**
+     * (Redis库存 + Redis订单数) - (数据库库存 + 数据库订单数),两边都等于初始库存时为0
+     */
+    private Long drift;
+    /**
+     * Redis已下单但数据库没有订单的用户数及部分用户id
+     */
+    private Integer missingInDb;
+    private List<Long> missingInDbSample;
+    /**
+     * 数据库有订单但Redis没有下单记录的用户数及部分用户id
+     */
+    private Integer missingInRedis;
+    private List<Long> missingInRedisSample;
+    /**
+     * 连续两次对账都存在的差异才会修复
+     */
+    private Boolean repaired;
+}
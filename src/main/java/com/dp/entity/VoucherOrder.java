@@ -42,6 +42,11 @@ public class VoucherOrder implements Serializable {
      */
     private Long voucherId;
 
+    /**
+     * 订单消息在消息队列中的id,用于消费去重
+     */
+    private String messageId;
+
     /**
      * 支付方式 1：余额支付；2：支付宝；3：微信
      */
@@ -2,6 +2,9 @@ package com.dp.mapper;
 
 import com.dp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,23 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行插入订单,违反唯一索引(一人一单、消息id)的订单被忽略
+     * @return 实际插入的订单数
+     */
+    int insertIgnore(@Param("orders") List<VoucherOrder> orders);
+
+    /**
+     * 把原表中id在[fromId, toId]之间、user_id % shards == shard 的订单复制到分表,已存在的订单被忽略
+     * @return 实际复制的订单数
+     */
+    int copyToShard(@Param("table") String table, @Param("shards") int shards, @Param("shard") int shard,
+                    @Param("fromId") long fromId, @Param("toId") long toId);
+
+    /**
+     * @return 原表中属于该分表但分表中还没有的订单数
+     */
+    long countMissing(@Param("table") String table, @Param("shards") int shards, @Param("shard") int shard);
+
+    void createShardTable(@Param("table") String table);
 }
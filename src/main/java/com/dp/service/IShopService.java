@@ -18,5 +18,7 @@ public interface IShopService extends IService<Shop> {
 
     Result queryWithLogical(Long id);
 
+    Result saveShop(Shop shop);
+
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
 }
@@ -15,4 +15,13 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result getTypeList();
+
+    /**
+     * @return 预先序列化好的类型列表响应
+     */
+    byte[] getTypeListBytes();
+
+    Result saveType(ShopType shopType);
+
+    Result updateType(ShopType shopType);
 }
@@ -3,6 +3,10 @@ package com.dp.service;
 import com.dp.dto.Result;
 import com.dp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -17,4 +21,29 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建订单: 每张优惠券一条语句插入所有订单并扣减一次库存,重复的订单被唯一索引忽略
+     */
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 查询当前用户的订单,只访问订单所在的分表
+     */
+    Result queryOrder(Long orderId, Long userId);
+
+    /**
+     * 分页查询用户的订单,只访问用户所在的分表
+     */
+    Result queryOrdersOfUser(Long userId, Integer current);
+
+    /**
+     * 查询秒杀订单的处理结果,订单仍在处理中时最多等待timeout毫秒
+     */
+    DeferredResult<Result> queryOrderStatus(Long orderId, Long userId, long timeout);
+
+    /**
+     * 查询订单消息队列的消费者数、未确认消息数和积压
+     */
+    Map<String, Object> queryOrderQueueStats();
 }
@@ -4,6 +4,8 @@ import com.dp.dto.Result;
 import com.dp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,14 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    void addVoucher(Voucher voucher);
+
+    /**
+     * 批量加载店铺的优惠券列表并用一个pipeline写入缓存
+     */
+    void preheatVouchersOfShops(Collection<Long> shopIds);
+
     void addSeckillVoucher(Voucher voucher);
+
+    Result addSeckillStock(Long voucherId, Integer count);
 }
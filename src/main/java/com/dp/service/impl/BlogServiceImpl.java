@@ -14,17 +14,23 @@ import com.dp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.dp.service.IFollowService;
 import com.dp.service.IUserService;
+import com.dp.utils.CacheClient;
+import com.dp.utils.CacheCodecs;
+import com.dp.utils.HotKeyDetector;
+import com.dp.utils.IdBloomFilter;
 import com.dp.utils.SystemConstants;
 import com.dp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.dp.utils.RedisConstants.*;
@@ -52,8 +58,26 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     IBlogService blogService;
 
+    @Resource
+    IdBloomFilter idBloomFilter;
+
+    @Resource
+    CacheClient cacheClient;
+
+    @Resource
+    HotKeyDetector hotKeyDetector;
+
+    @PostConstruct
+    private void init() {
+        cacheClient.registerCodec(CACHE_BLOG_KEY, CacheCodecs.SMILE);
+    }
+
     @Override
     public Result queryBlogById(Long id) {
+        //布隆过滤器判断不存在,直接返回
+        if (!idBloomFilter.mightContain(BLOG_BLOOM_KEY, id)) {
+            return Result.fail("博客不存在!");
+        }
         //根据Id查询博客
         Blog blog = getById(id);
         if (blog == null) {
@@ -77,6 +101,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         Long userId = user.getId();
         Long id = blog.getId();
         String likedKey = BLOG_LIKED_KEY + id;
+        // 点赞状态因用户而异,不能本地缓存,只统计访问频率
+        hotKeyDetector.record(likedKey);
         Double score = stringRedisTemplate.opsForZSet().score(likedKey, userId.toString());
         blog.setIsLike(score != null);
     }
@@ -118,6 +144,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 保存用户到redis集合
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().add(likedKey, userId.toString(), System.currentTimeMillis());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
+                hotKeyDetector.invalidate(likedKey);
             }
         } else {
             // 4.已点赞
@@ -126,6 +154,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 把用户从redis集合中移除
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().remove(likedKey, userId.toString());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
+                hotKeyDetector.invalidate(likedKey);
             }
         }
         return Result.ok();
@@ -133,8 +163,15 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Result queryBlogLikes(Long id) {
-        // 1.查询Top5的用户
+        // 0.热点博客直接返回本地缓存的结果
         String likedKey = BLOG_LIKED_KEY + id;
+        if (hotKeyDetector.record(likedKey)) {
+            Object cached = hotKeyDetector.get(likedKey);
+            if (cached != null) {
+                return Result.ok(cached);
+            }
+        }
+        // 1.查询Top5的用户
         Set<String> top5 = stringRedisTemplate.opsForZSet().range(likedKey, 0, 4);
         if (top5 == null ||  top5.isEmpty()) {
             return Result.ok(Collections.emptyList());
@@ -145,6 +182,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         String idStr = StrUtil.join(",", ids);
         List<UserDTO> users = userService.query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
                 .stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList());
+        hotKeyDetector.put(likedKey, users);
         // 4.返回
         return Result.ok(users);
     }
@@ -168,6 +206,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("笔记保存失败");
         }
+        idBloomFilter.add(BLOG_BLOOM_KEY, blog.getId());
         // 3.查询笔记作者的所有粉丝
         Long userId = UserHolder.getUser().getId();
         // 4.推送笔记Id给所有粉丝
@@ -212,8 +251,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os = 1;
             }
         }
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = blogService.query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        List<Blog> blogs = cacheClient.queryMany(CACHE_BLOG_KEY, ids, Blog.class, this::listByIds, Blog::getId,
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
         for (Blog blog : blogs) {
             queryBlogUser(blog);
             isBlogLiked(blog);
@@ -1,6 +1,5 @@
 package com.dp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.dp.dto.Result;
 import com.dp.entity.Shop;
@@ -8,6 +7,9 @@ import com.dp.mapper.ShopMapper;
 import com.dp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.dp.utils.CacheClient;
+import com.dp.utils.CacheCodecs;
+import com.dp.utils.CacheInvalidator;
+import com.dp.utils.IdBloomFilter;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -17,6 +19,7 @@ import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import java.util.*;
@@ -42,15 +45,39 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @PostConstruct
+    private void init() {
+        // 商铺缓存读取频繁,使用二进制格式减少解析开销
+        cacheClient.registerCodec(CACHE_SHOP_KEY, CacheCodecs.SMILE);
+    }
+
     @Override
     public Result queryWithLogical(Long id) {
-        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
+        // 本地缓存和Redis都未命中时才查询布隆过滤器,判断不存在则直接返回,不写入空值
+        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class,
+                shopId -> idBloomFilter.mightContain(SHOP_BLOOM_KEY, shopId), this::getById,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("该商铺不存在");
         }
         return Result.ok(shop);
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 写入布隆过滤器
+        idBloomFilter.add(SHOP_BLOOM_KEY, shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         // 1.判断是否需要根据坐标查询
@@ -84,9 +111,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             map.put(shopIdStr, distance);
         });
-        // 5.根据id查询店铺
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        // 5.根据id批量查询店铺缓存
+        List<Shop> shops = cacheClient.queryMany(CACHE_SHOP_KEY, ids, Shop.class, this::listByIds, Shop::getId,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
         for (Shop shop : shops) {
             Long shopId = shop.getId();
             Distance distance = map.get(shopId.toString());
@@ -105,8 +132,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //1. 更新数据库
         updateById(shop);
-        //2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2. 事务提交后删除缓存,并延迟再删除一次
+        cacheInvalidator.invalidateAfterCommit(CACHE_SHOP_KEY + id);
         //返回
         return Result.ok();
     }
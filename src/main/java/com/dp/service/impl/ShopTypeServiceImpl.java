@@ -1,50 +1,152 @@
 package com.dp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.dp.dto.Result;
 import com.dp.entity.ShopType;
 import com.dp.mapper.ShopTypeMapper;
 import com.dp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import static com.dp.utils.RedisConstants.TYPE_GEO_KEY;
-import static com.dp.utils.RedisConstants.TYPE_GEO_TTL;
+import static com.dp.utils.RedisConstants.TYPE_VERSION_KEY;
 
 /**
  * <p>
  *  服务实现类
  * </p>
- *
-
-
+ * 商铺类型几乎不变,每个节点在内存中保存一份只读快照,并预先序列化好响应内容;
+ * 后台定时比较redis中的版本号,版本变化时从数据库重新加载
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    ObjectMapper objectMapper;
+
+    /**
+     * 检查版本号的间隔(毫秒)
+     */
+    @Value("${dp.shop-type.refresh-interval:5000}")
+    private long refreshInterval;
+
+    private volatile Snapshot snapshot;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    private void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shop-type-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                log.error("刷新商铺类型失败", e);
+            }
+        }, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+    }
+
     @Override
     public Result getTypeList() {
-        //1. 查询redis
-        String typeJson = stringRedisTemplate.opsForValue().get(TYPE_GEO_KEY);
-        //存在直接返回
-        if (StrUtil.isNotBlank(typeJson)) {
-            List<ShopType> typeList = JSONUtil.toList(typeJson, ShopType.class);
-            return Result.ok(typeList);
+        return Result.ok(currentSnapshot().types);
+    }
+
+    @Override
+    public byte[] getTypeListBytes() {
+        return currentSnapshot().body;
+    }
+
+    @Override
+    public Result saveType(ShopType shopType) {
+        save(shopType);
+        bumpVersion();
+        return Result.ok(shopType.getId());
+    }
+
+    @Override
+    public Result updateType(ShopType shopType) {
+        if (shopType.getId() == null) {
+            return Result.fail("类型id不能为空");
+        }
+        updateById(shopType);
+        bumpVersion();
+        return Result.ok();
+    }
+
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            // 启动后尚未加载成功,同步加载一次
+            current = refresh();
+        }
+        return current;
+    }
+
+    /**
+     * 版本号变化时通知所有节点重新加载,本节点立即加载
+     */
+    private void bumpVersion() {
+        stringRedisTemplate.opsForValue().increment(TYPE_VERSION_KEY);
+        refresh();
+    }
+
+    private synchronized Snapshot refresh() {
+        // 先读取版本号再查询数据库,加载期间版本号再次变化时下次检查会重新加载
+        String version = stringRedisTemplate.opsForValue().get(TYPE_VERSION_KEY);
+        Snapshot current = snapshot;
+        if (current != null && Objects.equals(current.version, version)) {
+            return current;
+        }
+        List<ShopType> types = query().orderByAsc("sort").list();
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(Result.ok(types));
+            current = new Snapshot(version, Collections.unmodifiableList(types), body);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("商铺类型序列化失败", e);
+        }
+        snapshot = current;
+        log.debug("商铺类型已加载, 版本: {}, 数量: {}", version, types.size());
+        return current;
+    }
+
+    private static class Snapshot {
+        private final String version;
+        private final List<ShopType> types;
+        /**
+         * 预先序列化好的响应内容
+         */
+        private final byte[] body;
+
+        private Snapshot(String version, List<ShopType> types, byte[] body) {
+            this.version = version;
+            this.types = types;
+            this.body = body;
         }
-        //不存在,去数据库查询
-        List<ShopType> typeList = query().orderByAsc("sort").list();
-        //2. 存入redis中
-        stringRedisTemplate.opsForValue().set(TYPE_GEO_KEY, JSONUtil.toJsonStr(typeList), TYPE_GEO_TTL, TimeUnit.MINUTES);
-        //3. 返回
-        return Result.ok(typeList);
     }
 }
@@ -1,32 +1,61 @@
 package com.dp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.dp.dto.OrderStatus;
 import com.dp.dto.Result;
 import com.dp.entity.VoucherOrder;
 import com.dp.mapper.VoucherOrderMapper;
 import com.dp.service.ISeckillVoucherService;
 import com.dp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.dp.utils.OrderShards;
+import com.dp.utils.OrderStatusStore;
 import com.dp.utils.RedisIdWorker;
+import com.dp.utils.SeckillStockShards;
+import com.dp.utils.SeckillWindows;
+import com.dp.utils.SoldOutMarker;
+import com.dp.utils.SystemConstants;
 import com.dp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.dp.utils.RedisConstants.SECKILL_ORDER_DLQ;
+import static com.dp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.dp.utils.RedisConstants.SECKILL_ORDER_STREAM;
 
 /**
  * <p>
@@ -50,141 +79,483 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SoldOutMarker soldOutMarker;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private OrderStatusStore orderStatusStore;
+
+    @Resource
+    private OrderShards orderShards;
+
+    private static final int LAG_SCAN_LIMIT = 10000;
 
-    public static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final long CLAIM_BATCH_SIZE = 100;
+
+    /**
+     * 秒杀脚本返回值对应的失败原因
+     */
+    private static final Map<Integer, String> SECKILL_FAILURES = new HashMap<>();
 
     static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_FAILURES.put(SeckillStockShards.SOLD_OUT, "库存不足");
+        SECKILL_FAILURES.put(SeckillStockShards.DUPLICATE, "不能重复下单");
+        SECKILL_FAILURES.put(SeckillStockShards.MISSING, "秒杀库存尚未就绪");
+        SECKILL_FAILURES.put(SeckillWindows.NOT_STARTED, "秒杀尚未开始");
+        SECKILL_FAILURES.put(SeckillWindows.ENDED, "秒杀已经结束");
     }
-    private static final ExecutorService SECKILL_ORDER_SERVICE = Executors.newSingleThreadExecutor();
+    /**
+     * 每个节点的订单消费线程数
+     */
+    @Value("${dp.seckill.consumer.threads:1}")
+    private int consumerThreads;
+
+    /**
+     * 消费者名称前缀,为空时使用"主机名-进程号",保证每个实例的消费者名称唯一
+     */
+    @Value("${dp.seckill.consumer.name:}")
+    private String consumerName;
+
+    /**
+     * 检查超时未确认消息的间隔(毫秒)
+     */
+    @Value("${dp.seckill.consumer.claim-interval:5000}")
+    private long claimInterval;
+
+    /**
+     * 消息超过该时间(毫秒)未确认即被认领重试
+     */
+    @Value("${dp.seckill.consumer.min-idle:60000}")
+    private long minIdle;
+
+    /**
+     * 投递次数超过该值的消息转入死信队列
+     */
+    @Value("${dp.seckill.consumer.max-deliveries:3}")
+    private int maxDeliveries;
+
+    private ExecutorService orderExecutor;
+
+    private ScheduledExecutorService claimExecutor;
+
+    private String claimer;
+
+    private volatile boolean running = true;
 
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_SERVICE.submit(new VoucherOrderHandler());
+        createGroupIfAbsent();
+        String prefix = StrUtil.isBlank(consumerName)
+                ? NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid() : consumerName;
+        AtomicInteger threadNumber = new AtomicInteger();
+        orderExecutor = Executors.newFixedThreadPool(consumerThreads,
+                r -> new Thread(r, "order-consumer-" + threadNumber.incrementAndGet()));
+        for (int i = 0; i < consumerThreads; i++) {
+            orderExecutor.submit(new VoucherOrderHandler(prefix + "-" + i));
+        }
+        log.info("订单消费者已启动, 消费者: {}-[0, {})", prefix, consumerThreads);
+        claimer = prefix + "-claimer";
+        claimExecutor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "order-claimer"));
+        claimExecutor.scheduleWithFixedDelay(this::claimIdleOrders, claimInterval, claimInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止拉取新消息,等待正在处理的批次完成并ACK
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        claimExecutor.shutdown();
+        orderExecutor.shutdown();
+        if (!orderExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("订单消费者未能在10秒内停止");
+            orderExecutor.shutdownNow();
+        }
+        claimExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 认领空闲超过minIdle的未确认消息(包括已下线消费者的消息)并逐条重试,与正常消费并行执行
+     * 投递次数超过maxDeliveries的消息转入死信队列,避免毒消息反复重试
+     */
+    private void claimIdleOrders() {
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, Range.unbounded(), CLAIM_BATCH_SIZE);
+            Map<String, Long> deliveries = new HashMap<>(pending.size());
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() >= minIdle) {
+                    deliveries.put(message.getIdAsString(), message.getTotalDeliveryCount());
+                }
+            }
+            if (deliveries.isEmpty()) {
+                removeIdleConsumers();
+                return;
+            }
+            // XCLAIM会再次检查空闲时间,多个节点同时认领同一条消息时只有一个能成功
+            RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions.minIdleMs(minIdle)
+                    .ids(deliveries.keySet().toArray(new String[0]));
+            List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.streamCommands().xClaim(rawStreamKey(), SECKILL_ORDER_GROUP, claimer, options));
+            if (claimed == null) {
+                return;
+            }
+            for (ByteRecord record : claimed) {
+                // 认领本身也计一次投递
+                long delivery = deliveries.get(record.getId().getValue()) + 1;
+                Map<String, String> values = new HashMap<>(4);
+                record.getValue().forEach((k, v) ->
+                        values.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+                if (delivery > maxDeliveries) {
+                    moveToDeadLetter(record.getId(), values, delivery);
+                } else {
+                    retryVoucherOrder(record.getId(), values, delivery);
+                }
+            }
+        } catch (Exception e) {
+            log.error("认领超时订单消息异常", e);
+        }
+    }
+
+    private void retryVoucherOrder(RecordId id, Map<?, ?> values, long delivery) {
+        try {
+            proxy.createVoucherOrder(toVoucherOrder(id, values));
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, id);
+        } catch (Exception e) {
+            log.error("重试订单消息失败, id: {}, 投递次数: {}", id, delivery, e);
+        }
+    }
+
+    private void moveToDeadLetter(RecordId id, Map<String, String> values, long delivery) {
+        Map<String, String> deadLetter = new HashMap<>(values);
+        deadLetter.put("sourceId", id.getValue());
+        deadLetter.put("deliveries", String.valueOf(delivery - 1));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ, deadLetter);
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, id);
+        orderStatusStore.save(Collections.singletonList(toVoucherOrder(id, values)), OrderStatus.FAILED, "订单处理失败");
+        log.error("订单消息投递{}次仍失败,已转入死信队列, id: {}, 内容: {}", delivery - 1, id, values);
+    }
+
+    /**
+     * 消费者名称带有进程号,节点重启后旧名称不会再被使用,没有未确认消息且长时间空闲的消费者从组中删除
+     */
+    private void removeIdleConsumers() {
+        long maxIdle = minIdle * 10;
+        stringRedisTemplate.opsForStream().consumers(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP).stream()
+                .filter(consumer -> consumer.pendingCount() == 0 && consumer.idleTimeMs() > maxIdle)
+                .forEach(consumer -> {
+                    stringRedisTemplate.opsForStream().deleteConsumer(SECKILL_ORDER_STREAM,
+                            Consumer.from(SECKILL_ORDER_GROUP, consumer.consumerName()));
+                    log.info("删除空闲消费者: {}", consumer.consumerName());
+                });
+    }
+
+    private static byte[] rawStreamKey() {
+        return SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 创建消费者组,Stream不存在时一并创建(XGROUP CREATE ... MKSTREAM)
+     */
+    private void createGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    rawStreamKey(), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+            log.info("已创建消费者组: {} {}", SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP);
+        } catch (Exception e) {
+            // 其他节点已经创建过
+            if (!StrUtil.contains(ExceptionUtil.getRootCauseMessage(e), "BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> queryOrderQueueStats() {
+        Map<String, Object> stats = new HashMap<>(6);
+        StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream().groups(SECKILL_ORDER_STREAM).stream()
+                .filter(g -> SECKILL_ORDER_GROUP.equals(g.groupName()))
+                .findFirst().orElse(null);
+        if (group == null) {
+            return stats;
+        }
+        stats.put("consumers", group.consumerCount());
+        stats.put("pending", group.pendingCount());
+        stats.put("lastDeliveredId", group.lastDeliveredId());
+        stats.put("lag", queryLag(group));
+        stats.put("deadLetters", stringRedisTemplate.opsForStream().size(SECKILL_ORDER_DLQ));
+        return stats;
+    }
+
+    /**
+     * 消费者组的积压: 还未投递给任何消费者的消息数
+     * Redis 7起XINFO GROUPS直接返回lag,更早的版本从last-delivered-id向后扫描,最多统计LAG_SCAN_LIMIT条
+     */
+    private Long queryLag(StreamInfo.XInfoGroup group) {
+        Object lag = group.getRaw().get("lag");
+        if (lag instanceof Number) {
+            return ((Number) lag).longValue();
+        }
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(SECKILL_ORDER_STREAM,
+                Range.rightUnbounded(Range.Bound.inclusive(group.lastDeliveredId())),
+                RedisZSetCommands.Limit.limit().count(LAG_SCAN_LIMIT + 1));
+        if (records == null || records.isEmpty()) {
+            return 0L;
+        }
+        boolean delivered = records.get(0).getId().getValue().equals(group.lastDeliveredId());
+        return (long) records.size() - (delivered ? 1 : 0);
     }
 
     private class VoucherOrderHandler implements Runnable {
-        String queueName = "stream.orders";
+        private final Consumer consumer;
+
+        private VoucherOrderHandler(String name) {
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, name);
+        }
 
         @Override
         public void run() {
-            while (true) {
+            while (running) {
                 try {
-                    // 1.获取消息队列中的订单信息
+                    // 1.获取消息队列中的订单信息,批量模式下一次最多读取orderBatchSize条
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                            consumer,
+                            StreamReadOptions.empty().count(orderBatchSize).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed())
                     );
                     //判断消息是否获取成功
                     //获取失败则进行下一轮循环
                     if (list == null || list.isEmpty()) {
                         continue;
                     }
-                    //获取成功,解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 2.创建订单
-                    handleVoucherOrder(voucherOrder);
-                    // 3.ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    handlePendingList();
-                }
-            }
-        }
-
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    // 1.获取消息队列中的订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-                    //判断消息是否获取成功
-                    //获取失败则进行下一轮循环
-                    if (list == null || list.isEmpty()) {
-                        break;
+                    if (orderBatchSize > 1) {
+                        // 2.批量创建订单
+                        List<VoucherOrder> voucherOrders = list.stream()
+                                .map(record -> toVoucherOrder(record.getId(), record.getValue()))
+                                .collect(Collectors.toList());
+                        try {
+                            proxy.createVoucherOrders(voucherOrders);
+                        } catch (StockShortageException e) {
+                            // 整批已回滚,立即逐条重试,不等待claimIdleOrders认领,批内其他优惠券的订单不会一直处于处理中
+                            log.warn("{}, 逐条重试本批{}条订单", e.getMessage(), list.size());
+                            list.forEach(record -> retryVoucherOrder(record.getId(), record.getValue(), 1));
+                            continue;
+                        }
+                        // 3.一次ACK确认所有消息
+                        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP,
+                                list.stream().map(MapRecord::getId).toArray(RecordId[]::new));
+                        continue;
                     }
                     //获取成功,解析消息中的订单信息
                     MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
+                    VoucherOrder voucherOrder = toVoucherOrder(record.getId(), record.getValue());
                     // 2.创建订单
-                    handleVoucherOrder(voucherOrder);
+                    proxy.createVoucherOrder(voucherOrder);
                     // 3.ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, record.getId());
                 } catch (Exception e) {
-                    log.error("处理pendingList订单异常", e);
-                    try {
-                        Thread.sleep(2000);
-                    } catch (InterruptedException e1) {
-                        log.error(e1.getMessage());
+                    if (!running) {
+                        break;
                     }
+                    // 失败的消息留在pending-list中,由claimIdleOrders认领后逐条重试
+                    log.error("处理订单异常", e);
+                    ThreadUtil.sleep(1000);
                 }
             }
+            log.info("订单消费者已停止: {}", consumer.getName());
         }
     }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        boolean isLock = lock.tryLock();
-        if (!isLock) {
-            log.error("不允许重复下单");
-            return;
-        }
-        try {
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            lock.unlock();
+    /**
+     * 批量创建订单时某张优惠券库存不足,整批回滚
+     */
+    private static class StockShortageException extends IllegalStateException {
+        private StockShortageException(String message) {
+            super(message);
         }
     }
 
+    /**
+     * 解析订单消息,消息id作为消费去重的依据
+     */
+    private static VoucherOrder toVoucherOrder(RecordId id, Map<?, ?> values) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
+        voucherOrder.setMessageId(id.getValue());
+        return voucherOrder;
+    }
+
+    @Resource
     private IVoucherOrderService proxy;
 
+    /**
+     * 每次从消息队列读取并写入数据库的订单数,1表示逐条处理
+     */
+    @Value("${dp.seckill.order-batch-size:1}")
+    private int orderBatchSize;
+
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 1.执行Lua脚本
+        // 0.本地已标记售罄,直接返回
+        if (soldOutMarker.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 1.在用户所在的库存分片执行Lua脚本
         Long userId = UserHolder.getUser().getId();
-        // 获取订单Id
-        long orderId = redisIdWorker.nextId("order");
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(), voucherId.toString(),
-                userId.toString(), String.valueOf(orderId));
+        SeckillStockShards.Acquisition acquisition = seckillStockShards.acquire(voucherId, userId);
         // 2.判断是否为0
         // 不为0,没有购买资格
-        if (result != 0) {
-            return Result.fail(result == 1 ? "库存不足" : "不能重复下单");
+        int result = acquisition.getCode();
+        if (result != SeckillStockShards.SUCCESS) {
+            if (result == SeckillStockShards.SOLD_OUT) {
+                soldOutMarker.markSoldOut(voucherId);
+            }
+            return Result.fail(SECKILL_FAILURES.getOrDefault(result, "不能重复下单"));
         }
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        // 3.返回订单Id
+        // 3.获取订单Id,低位为用户所在的订单分表,写入消息队列
+        // 消息队列与库存分片不在同一个slot,不能在脚本中写入;写入失败时归还库存,进程在两步之间退出时由对账任务修复
+        long orderId = redisIdWorker.nextId("order", orderShards.bits(), orderShards.shardOfUser(userId));
+        Map<String, String> message = new HashMap<>(4);
+        message.put("userId", userId.toString());
+        message.put("voucherId", voucherId.toString());
+        message.put("id", String.valueOf(orderId));
+        try {
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(message).withStreamKey(SECKILL_ORDER_STREAM));
+        } catch (RuntimeException e) {
+            seckillStockShards.release(voucherId, userId, acquisition);
+            throw e;
+        }
+        // 4.返回订单Id
         return Result.ok(orderId);
     }
 
+    /**
+     * 创建订单,可以并发执行也可以重复执行:
+     * 唯一索引(user_id, voucher_id)保证一人一单,唯一索引message_id保证同一条消息只创建一次,重复时INSERT IGNORE不插入
+     */
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        Long voucherId = voucherOrder.getVoucherId();
-        Long userId = voucherOrder.getUserId();
         // 4.一人一单
-        int count = query().eq("voucher_id", voucherId).eq("userId", userId).count();
-        if (count > 0) {
-            log.error("不能重复下单");
+        List<VoucherOrder> voucherOrders = Collections.singletonList(voucherOrder);
+        int shard = orderShards.shardOfUser(voucherOrder.getUserId());
+        int inserted = orderShards.route(shard, () -> getBaseMapper().insertIgnore(voucherOrders));
+        if (inserted == 0) {
+            // 同一条消息重复消费时订单已存在,否则是同一用户的另一笔订单
+            boolean created = orderShards.route(shard, () -> getBaseMapper().selectCount(new QueryWrapper<VoucherOrder>()
+                    .eq("id", voucherOrder.getId()))) > 0;
+            if (!created) {
+                log.error("不能重复下单");
+            }
+            saveStatusAfterCompletion(voucherOrders, created ? OrderStatus.CREATED : OrderStatus.REJECTED,
+                    created ? null : "不能重复下单");
             return;
         }
         // 扣减库存
-        boolean success = seckillVoucherService.update().setSql("stock = stock - 1").eq("voucher_id", voucherId).gt("stock", 0).update();
+        boolean success = seckillVoucherService.update().setSql("stock = stock - 1")
+                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0).update();
         if (!success) {
             log.error("库存不足");
+            // 撤销插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            saveStatusAfterCompletion(voucherOrders, OrderStatus.REJECTED, "库存不足");
             return;
         }
-        save(voucherOrder);
+        saveStatusAfterCompletion(voucherOrders, OrderStatus.CREATED, null);
+    }
+
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        List<VoucherOrder> created = new ArrayList<>(voucherOrders.size());
+        List<VoucherOrder> rejected = new ArrayList<>();
+        ordersOfVoucher.forEach((voucherId, list) -> {
+            // 1.每张分表一条语句插入该优惠券的订单,重复的订单被忽略
+            int inserted = 0;
+            Map<Integer, List<VoucherOrder>> ordersOfShard = list.stream()
+                    .collect(Collectors.groupingBy(order -> orderShards.shardOfUser(order.getUserId())));
+            for (Map.Entry<Integer, List<VoucherOrder>> entry : ordersOfShard.entrySet()) {
+                inserted += orderShards.route(entry.getKey(), () -> insertIgnore(entry.getValue(), created, rejected));
+            }
+            if (inserted < list.size()) {
+                log.error("不能重复下单, voucherId: {}, 重复订单数: {}", voucherId, list.size() - inserted);
+            }
+            if (inserted == 0) {
+                return;
+            }
+            // 2.按实际插入的订单数扣减一次库存
+            boolean success = seckillVoucherService.update().setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", voucherId).ge("stock", inserted).update();
+            if (!success) {
+                // 无法确定哪些订单应被拒绝,整批回滚,由消费者立即逐条重试
+                throw new StockShortageException("库存不足, voucherId: " + voucherId + ", 订单数: " + inserted);
+            }
+        });
+        // 整批提交后才写入结果,回滚的批次逐条重试时写入
+        saveStatusAfterCompletion(created, OrderStatus.CREATED, null);
+        saveStatusAfterCompletion(rejected, OrderStatus.REJECTED, "不能重复下单");
+    }
+
+    /**
+     * 在当前分表插入订单,按结果把订单分为已创建和被拒绝
+     * @return 实际插入的订单数
+     */
+    private int insertIgnore(List<VoucherOrder> list, List<VoucherOrder> created, List<VoucherOrder> rejected) {
+        int inserted = getBaseMapper().insertIgnore(list);
+        if (inserted == list.size()) {
+            created.addAll(list);
+            return inserted;
+        }
+        // 按订单id区分已存在的订单(消息重复消费)和被拒绝的订单(同一用户重复下单)
+        Set<Long> existing = getBaseMapper().selectList(new QueryWrapper<VoucherOrder>().select("id")
+                        .in("id", list.stream().map(VoucherOrder::getId).collect(Collectors.toList())))
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        list.forEach(order -> (existing.contains(order.getId()) ? created : rejected).add(order));
+        return inserted;
     }
-}
 
+    /**
+     * 事务结束后写入订单处理结果,写入时数据库中的订单已经可见
+     */
+    private void saveStatusAfterCompletion(List<VoucherOrder> voucherOrders, String status, String reason) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int completion) {
+                // 库存不足的订单被回滚,其余结果只在提交后写入
+                if (completion == STATUS_COMMITTED || OrderStatus.REJECTED.equals(status)) {
+                    orderStatusStore.save(voucherOrders, status, reason);
+                }
+            }
+        });
+    }
+
+    /**
+     * 订单id低位即分表号,只查询一张分表;迁移前生成的订单id不含分表号,未命中时再查询用户所在的分表
+     */
+    @Override
+    public Result queryOrder(Long orderId, Long userId) {
+        VoucherOrder voucherOrder = orderShards.route(orderShards.shardOfOrder(orderId),
+                () -> query().eq("id", orderId).eq("user_id", userId).one());
+        if (voucherOrder == null && orderShards.shardOfOrder(orderId) != orderShards.shardOfUser(userId)) {
+            voucherOrder = orderShards.route(orderShards.shardOfUser(userId),
+                    () -> query().eq("id", orderId).eq("user_id", userId).one());
+        }
+        return voucherOrder == null ? Result.fail("订单不存在") : Result.ok(voucherOrder);
+    }
+
+    @Override
+    public Result queryOrdersOfUser(Long userId, Integer current) {
+        // 用户的订单都在同一张分表
+        Page<VoucherOrder> page = orderShards.route(orderShards.shardOfUser(userId), () -> query()
+                .eq("user_id", userId).orderByDesc("id")
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE)));
+        return Result.ok(page.getRecords());
+    }
+
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, Long userId, long timeout) {
+        return orderStatusStore.await(orderId, userId, timeout);
+    }
+}
@@ -7,14 +7,34 @@ import com.dp.mapper.VoucherMapper;
 import com.dp.entity.SeckillVoucher;
 import com.dp.service.ISeckillVoucherService;
 import com.dp.service.IVoucherService;
+import com.dp.utils.SeckillStockShards;
+import com.dp.utils.SeckillWindows;
+import com.dp.utils.SoldOutMarker;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.dp.utils.RedisConstants.CACHE_VOUCHER_KEY;
+import static com.dp.utils.RedisConstants.CACHE_VOUCHER_TTL;
 
-import static com.dp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -24,23 +44,122 @@ import static com.dp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private SoldOutMarker soldOutMarker;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private SeckillWindows seckillWindows;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private static final TypeReference<List<Voucher>> VOUCHER_LIST = new TypeReference<List<Voucher>>() {
+    };
+
+    /**
+     * 优惠券列表缓存在redis中,秒杀券的库存每次从redis库存分片实时读取
+     */
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        String key = CACHE_VOUCHER_KEY + shopId;
+        List<Voucher> vouchers = readVouchers(stringRedisTemplate.opsForValue().get(key));
+        if (vouchers == null) {
+            // 缓存未命中,查询优惠券信息并写入缓存
+            vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+            stringRedisTemplate.opsForValue().set(key, writeVouchers(vouchers), CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        overlayStock(vouchers);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        stringRedisTemplate.delete(CACHE_VOUCHER_KEY + voucher.getShopId());
+    }
+
+    @Override
+    public void preheatVouchersOfShops(Collection<Long> shopIds) {
+        if (shopIds.isEmpty()) {
+            return;
+        }
+        Map<Long, List<Voucher>> vouchersOfShop = getBaseMapper().queryVoucherOfShops(shopIds).stream()
+                .collect(Collectors.groupingBy(Voucher::getShopId));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long shopId : shopIds) {
+                stringConnection.setEx(CACHE_VOUCHER_KEY + shopId, TimeUnit.MINUTES.toSeconds(CACHE_VOUCHER_TTL),
+                        writeVouchers(vouchersOfShop.getOrDefault(shopId, Collections.emptyList())));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 一次MGET读取列表中所有秒杀券的库存分片,用redis中的实时库存替换缓存中的库存,redis中没有库存时保留数据库的值
+     * 每张秒杀券的分片数只读取一次,拼接key和拆分结果使用同一个值
+     */
+    private void overlayStock(List<Voucher> vouchers) {
+        List<Voucher> seckillVouchers = vouchers.stream().filter(v -> v.getStock() != null).collect(Collectors.toList());
+        if (seckillVouchers.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> counts = seckillStockShards.shardCounts(
+                seckillVouchers.stream().map(Voucher::getId).collect(Collectors.toList()));
+        List<String> keys = new ArrayList<>();
+        for (Voucher voucher : seckillVouchers) {
+            keys.addAll(seckillStockShards.stockKeys(voucher.getId(), counts.get(voucher.getId())));
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (stocks == null) {
+            return;
+        }
+        int index = 0;
+        for (Voucher voucher : seckillVouchers) {
+            int count = counts.get(voucher.getId());
+            List<String> shards = stocks.subList(index, index + count);
+            index += count;
+            if (shards.stream().allMatch(Objects::isNull)) {
+                continue;
+            }
+            voucher.setStock(Math.max(shards.stream().filter(Objects::nonNull).mapToInt(Integer::parseInt).sum(), 0));
+        }
+    }
+
+    private List<Voucher> readVouchers(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(json, VOUCHER_LIST);
+        } catch (JsonProcessingException e) {
+            log.error("优惠券列表缓存解析失败", e);
+            return null;
+        }
+    }
+
+    private String writeVouchers(List<Voucher> vouchers) {
+        try {
+            return objectMapper.writeValueAsString(vouchers);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("优惠券列表序列化失败", e);
+        }
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -53,6 +172,39 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), String.valueOf(voucher.getStock()));
+        // 库存分片写入redis
+        seckillStockShards.init(voucher.getId(), voucher.getStock());
+        // 秒杀时间窗口写入redis
+        seckillWindows.save(voucher.getId(), voucher.getBeginTime(), voucher.getEndTime());
+        // 事务提交后清除店铺的优惠券列表缓存
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                stringRedisTemplate.delete(CACHE_VOUCHER_KEY + voucher.getShopId());
+            }
+        });
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        // 更新数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count).eq("voucher_id", voucherId).update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 事务提交后更新redis库存,并清除各节点的售罄标记
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                seckillStockShards.addStock(voucherId, count);
+                soldOutMarker.clear(voucherId);
+            }
+        });
+        return Result.ok();
     }
 }
@@ -1,19 +1,33 @@
 package com.dp.utils;
 
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
+import static com.dp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.dp.utils.RedisConstants.CACHE_NULL_TTL;
 
 @Slf4j
@@ -22,82 +36,450 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final LocalCache localCache;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    /**
+     * 等待其他节点重建缓存的重试次数和间隔(毫秒)
+     */
+    private static final int MUTEX_RETRY_TIMES = 10;
+    private static final long MUTEX_RETRY_INTERVAL = 50;
+
+    /**
+     * 提前刷新的激进程度,越大越早开始刷新
+     */
+    private static final double EARLY_REFRESH_BETA = 1.0;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 按key前缀指定的序列化方式,未指定的使用hutool JSON
+     */
+    private final Map<String, CacheCodec> codecs = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCache localCache,
+                       RedisMessageListenerContainer listenerContainer, HotKeyDetector hotKeyDetector,
+                       CacheRebuildScheduler rebuildScheduler) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.listenerContainer = listenerContainer;
+        this.hotKeyDetector = hotKeyDetector;
+        this.rebuildScheduler = rebuildScheduler;
+    }
+
+    @PostConstruct
+    private void init() {
+        // 订阅失效通知,清除本节点的本地缓存
+        listenerContainer.addMessageListener(
+                (message, pattern) -> {
+                    for (String key : new String(message.getBody(), StandardCharsets.UTF_8).split(",")) {
+                        invalidateLocal(key);
+                    }
+                },
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 查询本地缓存,每次访问都先统计访问频率,一级缓存命中的热点key也会被计数;一级缓存未命中时热点key再查询热点缓存
+     */
+    private Object getLocal(String keyPrefix, String key) {
+        boolean hot = hotKeyDetector.record(key);
+        Object value = localCache.get(keyPrefix, key);
+        if (value == null && hot) {
+            value = hotKeyDetector.get(key);
+        }
+        return value;
+    }
+
+    private void putLocal(String keyPrefix, String key, Object value, long ttlMillis) {
+        localCache.put(keyPrefix, key, value, ttlMillis);
+        hotKeyDetector.put(key, value);
+    }
+
+    private void invalidateLocal(String key) {
+        localCache.invalidate(key);
+        hotKeyDetector.invalidate(key);
+    }
+
+    /**
+     * 为指定前缀的key设置序列化方式
+     * 注意: 修改已有前缀的序列化方式前需要先清除旧格式的缓存
+     */
+    public void registerCodec(String keyPrefix, CacheCodec codec) {
+        codecs.put(keyPrefix, codec);
+    }
+
+    private CacheCodec codecOf(String key) {
+        for (Map.Entry<String, CacheCodec> entry : codecs.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return CacheCodecs.HUTOOL_JSON;
     }
 
     public void set(String key, Object value, Long time, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, timeUnit);
+        setBytes(key, codecOf(key).encode(value), time, timeUnit);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit) {
-        RedisData redisData = new RedisData();
+        RedisData<Object> redisData = new RedisData<>();
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setBytes(key, codecOf(key).encodeWrapped(redisData), null, timeUnit);
+    }
+
+    /**
+     * 写入带有重建耗时的数据,redis中的过期时间是逻辑过期时间的两倍,
+     * 保证热点key在逻辑过期后仍能返回旧数据,冷key最终会被redis清除
+     */
+    public void setWithEarlyRefresh(String key, Object value, long delta, Long time, TimeUnit timeUnit) {
+        RedisData<Object> redisData = new RedisData<>();
+        redisData.setData(value);
+        redisData.setDelta(delta);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
+        setBytes(key, codecOf(key).encodeWrapped(redisData), time * 2, timeUnit);
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] getBytes(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+    }
+
+    /**
+     * @param time 为null时不设置过期时间
+     */
+    private void setBytes(String key, byte[] value, Long time, TimeUnit timeUnit) {
+        Expiration expiration = time == null ? Expiration.persistent() : Expiration.from(time, timeUnit);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey(key), value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    private static boolean isNullValue(byte[] bytes) {
+        return bytes != null && bytes.length == 0;
+    }
+
+    /**
+     * 删除缓存,并通知所有节点清除本地缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        invalidateLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除缓存,只发送一条失效通知
+     */
+    public void delete(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        keys.forEach(this::invalidateLocal);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, String.join(",", keys));
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        return queryWithPassThrough(keyPrefix, null, id, type, dbFallback, time, unit);
+    }
+
+    /**
+     * 缓存穿透 + 缓存击穿
+     * 同一节点内同一个key的并发未命中合并为一次加载; lockPrefix不为空时再用Redis互斥锁保证多个节点间只有一个去查数据库
+     */
+    public <R,ID> R queryWithPassThrough(String keyPrefix, String lockPrefix, ID id, Class<R> type,
+                                         Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        return queryWithPassThrough(keyPrefix, lockPrefix, id, type, null, dbFallback, time, unit);
+    }
+
+    /**
+     * 缓存穿透 + 缓存击穿,本地缓存和Redis都未命中后先用mightExist(如布隆过滤器)判断id是否可能存在,
+     * 判断不存在时直接返回null,不加锁、不查数据库、也不写入空值;只有误判的id才会查数据库并缓存空值
+     * @param mightExist 为null时不做判断
+     */
+    public <R,ID> R queryWithPassThrough(String keyPrefix, String lockPrefix, ID id, Class<R> type, Predicate<ID> mightExist,
+                                         Function<ID, R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        // 0.查询本地缓存
+        Object value = getLocal(keyPrefix, key);
+        if (value == null) {
+            // 1.查询redis,未命中则重建,同一个key同时只有一个线程执行
+            value = singleFlight.execute(key, () -> {
+                Object cached = getFromRedis(keyPrefix, key, type, unit.toMillis(time));
+                if (cached != null) {
+                    return cached;
+                }
+                // 2.一定不存在的id直接返回
+                if (mightExist != null && !mightExist.test(id)) {
+                    return LocalCache.NULL_VALUE;
+                }
+                return rebuild(keyPrefix, lockPrefix, id, type, dbFallback, time, unit);
+            });
         }
+        return value == LocalCache.NULL_VALUE ? null : type.cast(value);
+    }
+
+    /**
+     * @return 未命中返回null, 命中空值返回 {@link LocalCache#NULL_VALUE}
+     */
+    private <R> Object getFromRedis(String keyPrefix, String key, Class<R> type, long ttlMillis) {
+        byte[] bytes = getBytes(key);
         // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
-            return null;
+        if (isNullValue(bytes)) {
+            putLocal(keyPrefix, key, LocalCache.NULL_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            return LocalCache.NULL_VALUE;
+        }
+        // 判断是否存在
+        if (bytes != null) {
+            // 存在，写入本地缓存后返回
+            R r = codecOf(key).decode(bytes, type);
+            putLocal(keyPrefix, key, r, ttlMillis);
+            return r;
+        }
+        return null;
+    }
+
+    private <R, ID> Object rebuild(String keyPrefix, String lockPrefix, ID id, Class<R> type,
+                                   Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        if (lockPrefix == null) {
+            return loadFromDb(keyPrefix, id, dbFallback, time, unit);
         }
-        // 4.不存在，根据id查询数据库
+        String lockKey = lockPrefix + id;
+        for (int i = 0; i < MUTEX_RETRY_TIMES; i++) {
+            if (tryLock(lockKey)) {
+                try {
+                    // 获取锁后再次检查,其他节点可能已经完成了重建
+                    Object cached = getFromRedis(keyPrefix, key, type, unit.toMillis(time));
+                    return cached != null ? cached : loadFromDb(keyPrefix, id, dbFallback, time, unit);
+                } finally {
+                    unlock(lockKey);
+                }
+            }
+            // 其他节点正在重建,休眠后重新查询redis
+            ThreadUtil.sleep(MUTEX_RETRY_INTERVAL);
+            Object cached = getFromRedis(keyPrefix, key, type, unit.toMillis(time));
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // 等待超时,直接查询数据库
+        return loadFromDb(keyPrefix, id, dbFallback, time, unit);
+    }
+
+    private <R, ID> Object loadFromDb(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 根据id查询数据库
         R r = dbFallback.apply(id);
-        // 5.不存在，返回错误
+        // 不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 返回错误信息
-            return null;
+            setBytes(key, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(keyPrefix, key, LocalCache.NULL_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            return LocalCache.NULL_VALUE;
         }
-        // 6.存在，写入redis
+        // 存在，写入redis
         this.set(key, r, time, unit);
+        putLocal(keyPrefix, key, r, unit.toMillis(time));
         return r;
     }
 
+    /**
+     * 批量查询: 一次MGET查询redis,未命中的id一次性查询数据库,再用pipeline写回redis
+     * 批量查询的结果通常会被调用方修改(如距离、点赞状态),因此不经过本地缓存
+     * @param batchLoader 根据一组id查询数据库
+     * @param idGetter 从查询结果中取出id
+     * @return 按ids顺序排列的结果,不存在的id会被忽略
+     */
+    public <R, ID> List<R> queryMany(String keyPrefix, List<ID> ids, Class<R> type,
+                                     Function<List<ID>, List<R>> batchLoader, Function<R, ID> idGetter,
+                                     Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        CacheCodec codec = codecOf(keyPrefix);
+        // 1.一次性查询redis
+        byte[][] keys = ids.stream().map(id -> rawKey(keyPrefix + id)).toArray(byte[][]::new);
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes == null) {
+                // 空值表示数据库中不存在,只有null才需要查询数据库
+                misses.add(ids.get(i));
+            } else if (!isNullValue(bytes)) {
+                found.put(ids.get(i), codec.decode(bytes, type));
+            }
+        }
+        // 2.未命中的id一次性查询数据库,并用pipeline写回redis
+        if (!misses.isEmpty()) {
+            for (R r : batchLoader.apply(misses)) {
+                found.put(idGetter.apply(r), r);
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : misses) {
+                    R r = found.get(id);
+                    if (r == null) {
+                        connection.setEx(rawKey(keyPrefix + id), TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), new byte[0]);
+                    } else {
+                        connection.setEx(rawKey(keyPrefix + id), unit.toSeconds(time), codec.encode(r));
+                    }
+                }
+                return null;
+            });
+        }
+        // 3.按照传入的id顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 逻辑过期: 过期后由后台重建,期间继续返回旧数据; 缓存中不存在时同步加载
+     */
     public <R, ID> R queryWithLogicalExpire(ID id, Class<R> type, String keyPrefix, String lockPrefix,
                                             Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
-        //1. 在redis中查询商铺信息
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //不存在,直接返回
-        if (StrUtil.isBlank(json)) {
+        // 1.查询本地缓存,本地缓存中保存的是已经反序列化过的RedisData,有效期与逻辑过期时间一致
+        Object value = getLocal(keyPrefix, key);
+        if (value == null) {
+            // 2.查询redis,不存在时同步加载
+            value = singleFlight.execute(key, () -> {
+                Object cached = getWrappedFromRedis(keyPrefix, key, type);
+                return cached != null ? cached : loadWithLogicalExpire(keyPrefix, id, dbFallback, time, timeUnit);
+            });
+        }
+        if (value == LocalCache.NULL_VALUE) {
             return null;
         }
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            return r;
+        RedisData<?> redisData = (RedisData<?>) value;
+        // 3.已逻辑过期,提交后台重建,返回旧数据
+        if (!redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            rebuildAsync(key, lockPrefix + id, () -> loadWithLogicalExpire(keyPrefix, id, dbFallback, time, timeUnit));
         }
-        String lockKey = lockPrefix + id;
-        boolean isLock = tryLock(lockKey);
-        if (isLock) {
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try{
-                    R r1 = dbFallback.apply(id);
-                    this.setWithLogicalExpire(key, r1, time, timeUnit);
-                } catch (Exception e) {
-                    throw new RuntimeException();
-                } finally {
-                    unlock(lockKey);
-                }
+        return type.cast(redisData.getData());
+    }
+
+    /**
+     * @return 未命中返回null, 命中空值返回 {@link LocalCache#NULL_VALUE}, 否则返回RedisData
+     */
+    private <R> Object getWrappedFromRedis(String keyPrefix, String key, Class<R> type) {
+        byte[] bytes = getBytes(key);
+        if (isNullValue(bytes)) {
+            putLocal(keyPrefix, key, LocalCache.NULL_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            return LocalCache.NULL_VALUE;
+        }
+        if (bytes == null) {
+            return null;
+        }
+        RedisData<R> redisData = codecOf(key).decodeWrapped(bytes, type);
+        putLocal(keyPrefix, key, redisData, Duration.between(LocalDateTime.now(), redisData.getExpireTime()).toMillis());
+        return redisData;
+    }
+
+    private <R, ID> Object loadWithLogicalExpire(String keyPrefix, ID id, Function<ID, R> dbFallback,
+                                                 Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            setBytes(key, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(keyPrefix, key, LocalCache.NULL_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            return LocalCache.NULL_VALUE;
+        }
+        setWithLogicalExpire(key, r, time, timeUnit);
+        RedisData<R> redisData = new RedisData<>();
+        redisData.setData(r);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
+        putLocal(keyPrefix, key, redisData, timeUnit.toMillis(time));
+        return redisData;
+    }
+
+    /**
+     * 提交后台重建,本节点内按key去重,多个节点之间用互斥锁保证只有一个执行
+     */
+    private void rebuildAsync(String key, String lockKey, Runnable loader) {
+        rebuildScheduler.submit(key, () -> {
+            if (!tryLock(lockKey)) {
+                // 其他节点正在重建
+                return;
+            }
+            try {
+                loader.run();
+            } finally {
+                unlock(lockKey);
+            }
+        });
+    }
+
+    /**
+     * 概率提前刷新(XFetch): 越接近逻辑过期时间、重建耗时越长,读请求越可能提前在后台重建缓存,
+     * 使热点key的重建分散开,而不是集中在过期的那一刻
+     */
+    public <R, ID> R queryWithEarlyRefresh(String keyPrefix, String lockPrefix, ID id, Class<R> type,
+                                           Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        // 1.查询本地缓存
+        Object value = getLocal(keyPrefix, key);
+        if (value == null) {
+            // 2.查询redis,不存在时同步加载
+            value = singleFlight.execute(key, () -> {
+                Object cached = getWrappedFromRedis(keyPrefix, key, type);
+                return cached != null ? cached : loadWithDelta(keyPrefix, id, dbFallback, time, timeUnit);
             });
         }
-        return r;
+        if (value == LocalCache.NULL_VALUE) {
+            return null;
+        }
+        RedisData<?> redisData = (RedisData<?>) value;
+        // 3.判断是否需要提前刷新
+        if (shouldRefreshEarly(redisData)) {
+            rebuildAsync(key, lockPrefix + id, () -> loadWithDelta(keyPrefix, id, dbFallback, time, timeUnit));
+        }
+        return type.cast(redisData.getData());
+    }
+
+    private boolean shouldRefreshEarly(RedisData<?> redisData) {
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        long remaining = Duration.between(LocalDateTime.now(), redisData.getExpireTime()).toMillis();
+        // now - delta * beta * ln(rand) >= expiry
+        double gap = -delta * EARLY_REFRESH_BETA * Math.log(ThreadLocalRandom.current().nextDouble());
+        return gap >= remaining;
+    }
+
+    private <R, ID> Object loadWithDelta(String keyPrefix, ID id, Function<ID, R> dbFallback,
+                                         Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        long begin = System.currentTimeMillis();
+        R r = dbFallback.apply(id);
+        long delta = System.currentTimeMillis() - begin;
+        if (r == null) {
+            setBytes(key, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(keyPrefix, key, LocalCache.NULL_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            return LocalCache.NULL_VALUE;
+        }
+        setWithEarlyRefresh(key, r, delta, time, timeUnit);
+        RedisData<R> redisData = new RedisData<>();
+        redisData.setData(r);
+        redisData.setDelta(delta);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
+        putLocal(keyPrefix, key, redisData, timeUnit.toMillis(time));
+        return redisData;
     }
 
     private void unlock(String lockKey) {
@@ -0,0 +1,26 @@
+package com.dp.utils;
+
+import java.util.List;
+
+/**
+ * 缓存值的序列化方式,可以按key前缀在 {@link CacheClient} 中分别指定
+ * 空字节数组保留为空值标记,编码结果不能为空
+ */
+public interface CacheCodec {
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    <T> List<T> decodeList(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码带逻辑过期时间的数据
+     */
+    byte[] encodeWrapped(RedisData<?> redisData);
+
+    /**
+     * 解码带逻辑过期时间的数据,其中的data直接转换为type类型
+     */
+    <T> RedisData<T> decodeWrapped(byte[] bytes, Class<T> type);
+}
@@ -0,0 +1,25 @@
+package com.dp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * 可供选择的缓存序列化方式
+ */
+public class CacheCodecs {
+
+    /**
+     * hutool JSON,默认方式
+     */
+    public static final CacheCodec HUTOOL_JSON = new HutoolJsonCodec();
+
+    /**
+     * Jackson JSON,解析速度快于hutool,仍是可读的文本
+     */
+    public static final CacheCodec JACKSON_JSON = new JacksonCodec(new ObjectMapper());
+
+    /**
+     * Jackson Smile二进制格式,体积更小,解析最快
+     */
+    public static final CacheCodec SMILE = new JacksonCodec(new ObjectMapper(new SmileFactory()));
+}
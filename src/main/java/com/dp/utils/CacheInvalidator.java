@@ -0,0 +1,165 @@
+package com.dp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存失效: 事务提交后删除缓存,延迟一段时间后再删除一次(延迟双删)
+ * 第二次删除用于清除事务提交前后被并发读请求写回的旧数据,到期的key合并为一次批量删除;
+ * 删除失败的key留在等待队列中按指数退避重试,不依赖缓存的过期时间兜底
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    /**
+     * 检查到期key的间隔(毫秒)
+     */
+    private static final long FLUSH_INTERVAL = 100;
+
+    /**
+     * 重试间隔的上限(毫秒)
+     */
+    private static final long MAX_BACKOFF = 30000;
+
+    private final CacheClient cacheClient;
+
+    /**
+     * 第二次删除的延迟(毫秒),应大于一次读数据库并写缓存的耗时
+     */
+    @Value("${dp.cache.invalidation.delay:500}")
+    private long delay;
+
+    /**
+     * 删除失败后的最多重试次数,超过后依赖缓存的过期时间
+     */
+    @Value("${dp.cache.invalidation.max-retries:10}")
+    private int maxRetries;
+
+    /**
+     * 等待第二次删除或重试的key
+     */
+    private final Map<String, DelayedKey> delayedKeys = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public CacheInvalidator(CacheClient cacheClient) {
+        this.cacheClient = cacheClient;
+    }
+
+    @PostConstruct
+    private void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-invalidator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdown();
+        // 停机前把未到期的key也删除掉
+        deleteQuietly(new ArrayList<>(delayedKeys.keySet()));
+    }
+
+    /**
+     * 在当前事务提交后删除缓存,没有事务时立即删除
+     */
+    public void invalidateAfterCommit(String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalidate(key);
+            }
+        });
+    }
+
+    private void invalidate(String key) {
+        long now = System.currentTimeMillis();
+        if (deleteQuietly(Collections.singletonList(key))) {
+            delayedKeys.put(key, new DelayedKey(now + delay, 0));
+        } else {
+            // 第一次删除失败,按重试处理,重试成功也起到第二次删除的作用
+            delayedKeys.put(key, new DelayedKey(now + backoff(1), 1));
+        }
+    }
+
+    private void flush() {
+        long now = System.currentTimeMillis();
+        Map<String, DelayedKey> dueKeys = new HashMap<>();
+        delayedKeys.forEach((key, delayedKey) -> {
+            if (delayedKey.dueAt <= now && delayedKeys.remove(key, delayedKey)) {
+                dueKeys.put(key, delayedKey);
+            }
+        });
+        if (dueKeys.isEmpty() || deleteQuietly(new ArrayList<>(dueKeys.keySet()))) {
+            return;
+        }
+        dueKeys.forEach((key, delayedKey) -> {
+            int retries = delayedKey.retries + 1;
+            if (retries > maxRetries) {
+                log.error("删除缓存重试{}次仍失败, 依赖过期时间清除: {}", maxRetries, key);
+                return;
+            }
+            // 期间再次失效的key已经有新的删除计划
+            delayedKeys.putIfAbsent(key, new DelayedKey(now + backoff(retries), retries));
+        });
+    }
+
+    /**
+     * 第n次重试前的等待时间,从第二次删除的延迟开始每次翻倍
+     */
+    private long backoff(int retries) {
+        return Math.min(delay << Math.min(retries - 1, 16), MAX_BACKOFF);
+    }
+
+    /**
+     * @return 是否删除成功
+     */
+    private boolean deleteQuietly(List<String> keys) {
+        if (keys.isEmpty()) {
+            return true;
+        }
+        try {
+            cacheClient.delete(keys);
+            return true;
+        } catch (Exception e) {
+            log.error("删除缓存失败, keys: {}", keys, e);
+            return false;
+        }
+    }
+
+    private static class DelayedKey {
+        private final long dueAt;
+        /**
+         * 已经失败的次数
+         */
+        private final int retries;
+
+        private DelayedKey(long dueAt, int retries) {
+            this.dueAt = dueAt;
+            this.retries = retries;
+        }
+    }
+}
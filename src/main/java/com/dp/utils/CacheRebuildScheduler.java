@@ -0,0 +1,108 @@
+package com.dp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存后台重建的线程池
+ * 队列有界,同一个key同时只会有一个重建任务;队列已满时拒绝新任务,调用方继续返回旧数据
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 排队中或执行中的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    public CacheRebuildScheduler(@Value("${dp.cache.rebuild.threads:10}") int threads,
+                                 @Value("${dp.cache.rebuild.queue-capacity:100}") int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "cache-rebuild-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 提交重建任务
+     * @return 同一个key已在重建或队列已满时返回false
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, task));
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满, 放弃重建, key: {}", key);
+            return false;
+        }
+    }
+
+    private void run(String key, Runnable task) {
+        long begin = System.currentTimeMillis();
+        try {
+            task.run();
+            completed.increment();
+        } catch (Exception e) {
+            failures.increment();
+            log.error("缓存重建失败, key: {}", key, e);
+        } finally {
+            long latency = System.currentTimeMillis() - begin;
+            totalLatency.add(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+            pendingKeys.remove(key);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long finished = completed.sum() + failures.sum();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failures", failures.sum());
+        stats.put("avgLatencyMillis", finished == 0 ? 0 : totalLatency.sum() / finished);
+        stats.put("maxLatencyMillis", maxLatency.get());
+        return stats;
+    }
+}
@@ -0,0 +1,43 @@
+package com.dp.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按key前缀统计的本地缓存命中情况
+ */
+public class CacheStats {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hit = getHits();
+        long total = hit + getMisses();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+}
@@ -0,0 +1,110 @@
+package com.dp.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min Sketch,用于近似统计key的访问频率
+ * 计数达到采样上限后所有计数减半,使旧的热度逐渐衰减;
+ * 计数器使用原子数组,多个线程可以同时记录,减半与并发记录之间丢失少量计数不影响近似统计
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private static final int MAX_COUNT = Integer.MAX_VALUE >>> 1;
+
+    private final AtomicIntegerArray[] table;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param width 每一行的计数器个数,会向上取整为2的幂
+     */
+    public FrequencySketch(int width) {
+        int size = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+        this.table = new AtomicIntegerArray[SEEDS.length];
+        for (int i = 0; i < SEEDS.length; i++) {
+            table[i] = new AtomicIntegerArray(size);
+        }
+        this.mask = size - 1;
+        this.sampleSize = size * 10;
+    }
+
+    /**
+     * 记录一次访问
+     * @return 记录后的估计频率
+     */
+    public int increment(String key) {
+        int hash = spread(key.hashCode());
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            min = Math.min(min, incrementAt(table[i], indexOf(hash, i)));
+        }
+        // 每个计数值只有一个线程取到,只由该线程执行减半
+        if (additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+        return min;
+    }
+
+    private static int incrementAt(AtomicIntegerArray row, int index) {
+        while (true) {
+            int count = row.get(index);
+            if (count >= MAX_COUNT) {
+                return count;
+            }
+            if (row.compareAndSet(index, count, count + 1)) {
+                return count + 1;
+            }
+        }
+    }
+
+    /**
+     * 查询key的估计频率
+     */
+    public int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            min = Math.min(min, table[i].get(indexOf(hash, i)));
+        }
+        return min;
+    }
+
+    /**
+     * 清空所有计数
+     */
+    public void clear() {
+        for (AtomicIntegerArray row : table) {
+            for (int i = 0; i < row.length(); i++) {
+                row.set(i, 0);
+            }
+        }
+        additions.set(0);
+    }
+
+    private void reset() {
+        for (AtomicIntegerArray row : table) {
+            for (int i = 0; i < row.length(); i++) {
+                row.set(i, row.get(i) >>> 1);
+            }
+        }
+        additions.addAndGet(-(sampleSize >>> 1));
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
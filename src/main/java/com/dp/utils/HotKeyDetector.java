@@ -0,0 +1,191 @@
+package com.dp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 热点key探测
+ * 按时间窗口用Count-Min Sketch统计访问次数,窗口内超过阈值的key被提升为热点,其值在本地缓存很短的时间;
+ * 连续若干个窗口未达到阈值后降级
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    @Value("${dp.hotkey.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 统计窗口(毫秒)
+     */
+    @Value("${dp.hotkey.window:1000}")
+    private long window;
+
+    /**
+     * 一个窗口内的访问次数达到该值即视为热点
+     */
+    @Value("${dp.hotkey.threshold:500}")
+    private int threshold;
+
+    /**
+     * 采样率,每sample-rate次访问统计一次,用于降低统计开销
+     */
+    @Value("${dp.hotkey.sample-rate:1}")
+    private int sampleRate;
+
+    /**
+     * 连续多少个窗口未达到阈值后降级
+     */
+    @Value("${dp.hotkey.cool-down-windows:5}")
+    private int coolDownWindows;
+
+    /**
+     * 热点数据在本地的缓存时间(毫秒)
+     */
+    @Value("${dp.hotkey.local-ttl:1000}")
+    private long localTtl;
+
+    private final FrequencySketch sketch = new FrequencySketch(8192);
+
+    /**
+     * 当前热点key及其状态
+     */
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 本窗口内达到阈值的key
+     */
+    private final Set<String> windowHotKeys = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, LocalValue> localValues = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hot-key-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::rollWindow, window, window, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 记录一次访问
+     * @return key当前是否为热点
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        if (sampleRate <= 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+            int count = sketch.increment(key) * Math.max(sampleRate, 1);
+            if (count >= threshold) {
+                windowHotKeys.add(key);
+                HotKey hotKey = hotKeys.computeIfAbsent(key, k -> {
+                    log.info("发现热点key: {}", k);
+                    return new HotKey();
+                });
+                hotKey.count = count;
+            }
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 查询热点key在本地缓存的值
+     * @return 不是热点或已过期时返回null
+     */
+    public Object get(String key) {
+        LocalValue localValue = localValues.get(key);
+        if (localValue == null) {
+            return null;
+        }
+        if (localValue.expireAt < System.currentTimeMillis()) {
+            localValues.remove(key, localValue);
+            return null;
+        }
+        return localValue.value;
+    }
+
+    /**
+     * 缓存热点key的值,非热点key直接忽略
+     */
+    public void put(String key, Object value) {
+        if (value != null && hotKeys.containsKey(key)) {
+            localValues.put(key, new LocalValue(value, System.currentTimeMillis() + localTtl));
+        }
+    }
+
+    public void invalidate(String key) {
+        localValues.remove(key);
+    }
+
+    /**
+     * @return 当前热点key及其最近一个窗口内的估计访问次数
+     */
+    public Map<String, Integer> hotKeys() {
+        Map<String, Integer> result = new TreeMap<>();
+        hotKeys.forEach((key, hotKey) -> result.put(key, hotKey.count));
+        return result;
+    }
+
+    private void rollWindow() {
+        try {
+            sketch.clear();
+            for (Map.Entry<String, HotKey> entry : hotKeys.entrySet()) {
+                String key = entry.getKey();
+                HotKey hotKey = entry.getValue();
+                if (windowHotKeys.contains(key)) {
+                    hotKey.idleWindows = 0;
+                } else if (++hotKey.idleWindows >= coolDownWindows) {
+                    // 访问量下降,降级为普通key
+                    hotKeys.remove(key);
+                    localValues.remove(key);
+                    log.info("热点key降级: {}", key);
+                }
+            }
+            windowHotKeys.clear();
+        } catch (Exception e) {
+            log.error("热点key统计异常", e);
+        }
+    }
+
+    private static class HotKey {
+        private volatile int count;
+        private int idleWindows;
+    }
+
+    private static class LocalValue {
+        private final Object value;
+        private final long expireAt;
+
+        private LocalValue(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.dp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 基于hutool的JSON序列化,与原有的缓存格式保持一致
+ */
+public class HutoolJsonCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> type) {
+        return JSONUtil.toList(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeWrapped(RedisData<?> redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public <T> RedisData<T> decodeWrapped(byte[] bytes, Class<T> type) {
+        // 只解析一次JSON,data直接转换为目标类型
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        RedisData<T> redisData = new RedisData<>();
+        redisData.setExpireTime(json.get("expireTime", LocalDateTime.class));
+        redisData.setDelta(json.getLong("delta"));
+        redisData.setData(json.get("data", type));
+        return redisData;
+    }
+}
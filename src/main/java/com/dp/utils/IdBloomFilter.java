@@ -0,0 +1,128 @@
+package com.dp.utils;
+
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 保存在Redis中的id布隆过滤器,用于在访问Redis和数据库之前拦截不存在的id,防止缓存穿透
+ * 本节点预热完成前不做拦截,避免把已存在的id误判为不存在
+ */
+@Component
+public class IdBloomFilter {
+
+    private final RedissonClient redissonClient;
+
+    @Value("${dp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${dp.bloom.false-probability:0.01}")
+    private double falseProbability;
+
+    private final Map<String, RBloomFilter<String>> filters = new ConcurrentHashMap<>();
+
+    private final Set<String> readyFilters = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 本节点被过滤器拦截的查询次数
+     */
+    private final Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+
+    public IdBloomFilter(RedissonClient redissonClient) {
+        this.redissonClient = redissonClient;
+    }
+
+    private RBloomFilter<String> filterOf(String name) {
+        return filters.computeIfAbsent(name, n -> {
+            RBloomFilter<String> filter = redissonClient.getBloomFilter(n, StringCodec.INSTANCE);
+            // 其他节点已经初始化过时返回false,沿用已有的参数
+            filter.tryInit(expectedInsertions, falseProbability);
+            return filter;
+        });
+    }
+
+    public void add(String name, Object id) {
+        filterOf(name).add(id.toString());
+    }
+
+    /**
+     * 标记本节点已完成预热,开始拦截
+     */
+    public void markReady(String name) {
+        readyFilters.add(name);
+    }
+
+    /**
+     * @return false表示id一定不存在; true表示id可能存在
+     */
+    public boolean mightContain(String name, Object id) {
+        if (id == null) {
+            return false;
+        }
+        if (!readyFilters.contains(name)) {
+            return true;
+        }
+        boolean contains = filterOf(name).contains(id.toString());
+        if (!contains) {
+            rejected.computeIfAbsent(name, n -> new LongAdder()).increment();
+        }
+        return contains;
+    }
+
+    /**
+     * 查询过滤器占用的内存等信息
+     */
+    public Map<String, Object> info(String name) {
+        RBloomFilter<String> filter = filterOf(name);
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("ready", readyFilters.contains(name));
+        info.put("expectedInsertions", filter.getExpectedInsertions());
+        info.put("falseProbability", filter.getFalseProbability());
+        info.put("hashIterations", filter.getHashIterations());
+        info.put("count", filter.count());
+        info.put("bytes", filter.getSize() / 8);
+        return info;
+    }
+
+    /**
+     * 对比布隆过滤器与空值缓存方案的内存占用,两者都用MEMORY USAGE测量:
+     * 写入一个与空值缓存格式相同的探测key测出单个空值key的大小,乘以本节点拦截的查询次数即为空值方案需要的内存(同一个id重复查询时偏大)
+     * @param nullKeyPrefix 空值缓存使用的key前缀
+     */
+    public Map<String, Object> memory(String name, String nullKeyPrefix) {
+        RBloomFilter<String> filter = filterOf(name);
+        // 探测key的id位数与预期元素数量相同
+        RBucket<byte[]> probe = redissonClient.getBucket(nullKeyPrefix + expectedInsertions, ByteArrayCodec.INSTANCE);
+        long nullKeyBytes;
+        if (probe.trySet(new byte[0], 1, TimeUnit.MINUTES)) {
+            try {
+                nullKeyBytes = probe.sizeInMemory();
+            } finally {
+                probe.delete();
+            }
+        } else {
+            nullKeyBytes = probe.sizeInMemory();
+        }
+        long bloomBytes = filter.sizeInMemory();
+        long rejectedCount = rejected.computeIfAbsent(name, n -> new LongAdder()).sum();
+        Map<String, Object> memory = new LinkedHashMap<>();
+        memory.put("bloomBytes", bloomBytes);
+        memory.put("nullKeyBytes", nullKeyBytes);
+        memory.put("rejected", rejectedCount);
+        memory.put("nullKeysBytesForRejected", rejectedCount * nullKeyBytes);
+        // 不存在的id超过该数量后,空值方案占用的内存超过布隆过滤器
+        memory.put("breakEvenIds", nullKeyBytes == 0 ? 0 : bloomBytes / nullKeyBytes);
+        return memory;
+    }
+}
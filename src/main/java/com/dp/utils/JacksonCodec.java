@@ -0,0 +1,66 @@
+package com.dp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 基于Jackson的序列化,传入JSON或Smile(二进制JSON)的ObjectMapper
+ */
+public class JacksonCodec implements CacheCodec {
+
+    private final ObjectMapper mapper;
+
+    public JacksonCodec(ObjectMapper mapper) {
+        this.mapper = mapper
+                .registerModule(new JavaTimeModule())
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException("缓存序列化失败", e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            return mapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new RuntimeException("缓存反序列化失败", e);
+        }
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> type) {
+        try {
+            return mapper.readValue(bytes, mapper.getTypeFactory().constructCollectionType(List.class, type));
+        } catch (IOException e) {
+            throw new RuntimeException("缓存反序列化失败", e);
+        }
+    }
+
+    @Override
+    public byte[] encodeWrapped(RedisData<?> redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public <T> RedisData<T> decodeWrapped(byte[] bytes, Class<T> type) {
+        try {
+            // 按RedisData<T>直接绑定,不经过中间的树结构
+            return mapper.readValue(bytes, mapper.getTypeFactory().constructParametricType(RedisData.class, type));
+        } catch (IOException e) {
+            throw new RuntimeException("缓存反序列化失败", e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.dp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程内一级缓存,位于Redis之前
+ * 容量满时按访问频率淘汰(TinyLFU): 新key的频率不高于LRU队尾的key时不予写入,避免偶发访问挤掉热点数据。
+ * 数据保存在ConcurrentHashMap中,读取不加锁;访问记录先写入缓冲区,积累到一定数量后由获得淘汰锁的线程批量更新访问频率和LRU顺序,
+ * 缓冲区满时丢弃访问记录,只影响淘汰的精确度
+ */
+@Component
+public class LocalCache {
+
+    /**
+     * 缓存空值时使用的占位对象
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    /**
+     * 访问记录缓冲区的容量,以及触发批量处理的数量
+     */
+    private static final int READ_BUFFER_SIZE = 1024;
+    private static final int DRAIN_THRESHOLD = 64;
+
+    private final boolean enabled;
+
+    private final int maximumSize;
+
+    /**
+     * 本地缓存的最大存活时间(毫秒),实际有效期取其与Redis有效期中的较小值
+     */
+    private final long ttlMillis;
+
+    private final Map<String, Entry> data = new ConcurrentHashMap<>();
+
+    /**
+     * LRU顺序,只在持有evictionLock时访问
+     */
+    private final LinkedHashMap<String, Boolean> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Queue<String> readBuffer = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingReads = new AtomicInteger();
+
+    private final Map<String, CacheStats> stats = new ConcurrentHashMap<>();
+
+    private final FrequencySketch sketch;
+
+    public LocalCache(@Value("${dp.cache.local.enabled:true}") boolean enabled,
+                      @Value("${dp.cache.local.maximum-size:1000}") int maximumSize,
+                      @Value("${dp.cache.local.ttl:60}") long ttlSeconds) {
+        this.enabled = enabled;
+        this.maximumSize = maximumSize;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * 查询本地缓存
+     * @param keyPrefix 统计用的key前缀
+     * @param key 完整的key
+     * @return 缓存的值, 未命中返回null, 命中空值返回 {@link #NULL_VALUE}
+     */
+    public Object get(String keyPrefix, String key) {
+        if (!enabled) {
+            return null;
+        }
+        recordRead(key);
+        Object value = null;
+        Entry entry = data.get(key);
+        if (entry != null) {
+            if (entry.expireAt > System.currentTimeMillis()) {
+                value = entry.value;
+            } else {
+                // LRU中的key在淘汰时清理
+                data.remove(key, entry);
+            }
+        }
+        CacheStats cacheStats = statsOf(keyPrefix);
+        if (value == null) {
+            cacheStats.recordMiss();
+        } else {
+            cacheStats.recordHit();
+        }
+        return value;
+    }
+
+    /**
+     * 写入本地缓存
+     * @param ttlMillis 数据在Redis中的有效期(毫秒)
+     */
+    public void put(String keyPrefix, String key, Object value, long ttlMillis) {
+        if (!enabled || value == null || ttlMillis <= 0) {
+            return;
+        }
+        long expireAt = System.currentTimeMillis() + Math.min(ttlMillis, this.ttlMillis);
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            data.put(key, new Entry(keyPrefix, value, expireAt));
+            accessOrder.put(key, Boolean.TRUE);
+            evict(key);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void invalidate(String key) {
+        data.remove(key);
+        evictionLock.lock();
+        try {
+            accessOrder.remove(key);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * 记录一次访问,缓冲区满时丢弃;积累到一定数量时尝试批量处理,其他线程正在处理时直接返回
+     */
+    private void recordRead(String key) {
+        if (pendingReads.get() >= READ_BUFFER_SIZE) {
+            return;
+        }
+        readBuffer.offer(key);
+        if (pendingReads.incrementAndGet() >= DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 批量更新访问频率和LRU顺序,调用方必须持有evictionLock
+     */
+    private void drainReadBuffer() {
+        String key;
+        while ((key = readBuffer.poll()) != null) {
+            pendingReads.decrementAndGet();
+            sketch.increment(key);
+            accessOrder.get(key);
+        }
+    }
+
+    /**
+     * 超出容量时淘汰LRU队尾的key,新key不比队尾的key更热时淘汰新key,调用方必须持有evictionLock
+     */
+    private void evict(String candidate) {
+        while (accessOrder.size() > maximumSize) {
+            String eldest = accessOrder.keySet().iterator().next();
+            Entry eldestEntry = data.get(eldest);
+            if (eldestEntry == null) {
+                // 已过期或失效
+                accessOrder.remove(eldest);
+                continue;
+            }
+            // 新key不比队尾的key更热,放弃写入
+            if (!eldest.equals(candidate) && sketch.frequency(candidate) <= sketch.frequency(eldest)) {
+                accessOrder.remove(candidate);
+                data.remove(candidate);
+                return;
+            }
+            accessOrder.remove(eldest);
+            if (data.remove(eldest, eldestEntry)) {
+                statsOf(eldestEntry.keyPrefix).recordEviction();
+            }
+        }
+    }
+
+    public Map<String, CacheStats> stats() {
+        return stats;
+    }
+
+    private CacheStats statsOf(String keyPrefix) {
+        return stats.computeIfAbsent(keyPrefix, k -> new CacheStats());
+    }
+
+    private static class Entry {
+        private final String keyPrefix;
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(String keyPrefix, Object value, long expireAt) {
+            this.keyPrefix = keyPrefix;
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
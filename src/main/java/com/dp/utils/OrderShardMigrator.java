@@ -0,0 +1,165 @@
+package com.dp.utils;
+
+import com.dp.entity.VoucherOrder;
+import com.dp.mapper.VoucherOrderMapper;
+import com.dp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.dp.utils.RedisConstants.LOCK_ORDER_MIGRATE_KEY;
+
+/**
+ * 把未分表的tb_voucher_order按user_id拆分到 tb_voucher_order_0 ~ tb_voucher_order_{n-1}
+ * 按主键分块,每块对每张分表执行一条 INSERT IGNORE ... SELECT,数据不经过应用;可以重复执行,中断后重新执行即可继续。
+ * 迁移不对外提供接口,由运维设置 dp.order.migrate.shards=n 单独启动一个进程执行,完成后进程退出,例如
+ * java -jar app.jar --dp.order.migrate.shards=4 --spring.main.web-application-type=none
+ * 上线步骤: 1.以dp.order.shards=1运行时执行迁移,复制已有订单; 2.把dp.order.shards改为n并重启,新订单写入分表;
+ * 3.再执行一次迁移,补齐步骤1之后写入原表的订单,报告中各分表缺失数为0后原表可以下线
+ */
+@Slf4j
+@Component
+public class OrderShardMigrator implements ApplicationRunner {
+
+    private static final int CHUNK_SIZE = 5000;
+
+    /**
+     * 启动后迁移到的分表数,0表示不迁移
+     */
+    @Value("${dp.order.migrate.shards:0}")
+    private int migrateShards;
+
+    /**
+     * 迁移完成后是否退出进程
+     */
+    @Value("${dp.order.migrate.exit:true}")
+    private boolean exitAfterMigrate;
+
+    private final RedissonClient redissonClient;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final VoucherOrderMapper voucherOrderMapper;
+
+    private final OrderShards orderShards;
+
+    private final DataSource dataSource;
+
+    private final ConfigurableApplicationContext applicationContext;
+
+    public OrderShardMigrator(RedissonClient redissonClient, IVoucherOrderService voucherOrderService,
+                              VoucherOrderMapper voucherOrderMapper, OrderShards orderShards, DataSource dataSource,
+                              ConfigurableApplicationContext applicationContext) {
+        this.redissonClient = redissonClient;
+        this.voucherOrderService = voucherOrderService;
+        this.voucherOrderMapper = voucherOrderMapper;
+        this.orderShards = orderShards;
+        this.dataSource = dataSource;
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (migrateShards <= 0) {
+            return;
+        }
+        int exitCode = 0;
+        try {
+            migrate(migrateShards);
+        } catch (Exception e) {
+            log.error("订单分表迁移失败", e);
+            exitCode = 1;
+        }
+        if (exitAfterMigrate) {
+            int code = exitCode;
+            System.exit(SpringApplication.exit(applicationContext, () -> code));
+        }
+    }
+
+    /**
+     * @param shards 目标分表数,必须是2的幂且大于1
+     * @return 原表订单数、本次复制的订单数,以及各分表仍缺失的订单数
+     */
+    public Map<String, Object> migrate(int shards) {
+        if (shards < 2 || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("分表数必须是大于1的2的幂: " + shards);
+        }
+        if (orderShards.shards() > 1 && orderShards.shards() != shards) {
+            throw new IllegalArgumentException("目标分表数与当前配置不一致: " + orderShards.shards());
+        }
+        RLock lock = redissonClient.getLock(LOCK_ORDER_MIGRATE_KEY);
+        if (!lock.tryLock()) {
+            throw new IllegalStateException("订单分表迁移正在执行");
+        }
+        try {
+            return orderShards.route(OrderShards.BASE, () -> copyAll(shards));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map<String, Object> copyAll(int shards) {
+        for (int shard = 0; shard < shards; shard++) {
+            createTableIfAbsent(OrderShards.shardTable(shard));
+        }
+        // 1.按主键分块复制
+        long copied = 0;
+        long lastId = 0;
+        while (true) {
+            long fromId = lastId;
+            List<VoucherOrder> ids = voucherOrderService.query().select("id")
+                    .gt("id", fromId).orderByAsc("id").last("limit " + CHUNK_SIZE).list();
+            if (ids.isEmpty()) {
+                break;
+            }
+            long firstId = ids.get(0).getId();
+            lastId = ids.get(ids.size() - 1).getId();
+            for (int shard = 0; shard < shards; shard++) {
+                copied += voucherOrderMapper.copyToShard(OrderShards.shardTable(shard), shards, shard, firstId, lastId);
+            }
+            if (ids.size() < CHUNK_SIZE) {
+                break;
+            }
+        }
+        // 2.校验
+        Map<String, Long> missing = new LinkedHashMap<>();
+        for (int shard = 0; shard < shards; shard++) {
+            String table = OrderShards.shardTable(shard);
+            missing.put(table, voucherOrderMapper.countMissing(table, shards, shard));
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("shards", shards);
+        report.put("source", voucherOrderService.count());
+        report.put("copied", copied);
+        report.put("missing", missing);
+        log.info("订单分表迁移完成: {}", report);
+        return report;
+    }
+
+    private void createTableIfAbsent(String table) {
+        try (Connection connection = dataSource.getConnection();
+             ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), null, table, new String[]{"TABLE"})) {
+            if (tables.next()) {
+                return;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("查询表结构失败: " + table, e);
+        }
+        voucherOrderMapper.createShardTable(table);
+        log.info("已创建订单分表: {}", table);
+    }
+}
@@ -0,0 +1,122 @@
+package com.dp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * 订单分表
+ * tb_voucher_order按用户id拆分为 tb_voucher_order_0 ~ tb_voucher_order_{n-1},同一用户的订单在同一张表,一人一单的唯一索引仍然有效;
+ * 新订单ID的低位嵌入用户所在的分表号,按订单id或按用户查询都只访问一张表。
+ * 访问订单表的语句必须先通过 {@link #route} 指定分表,由MybatisConfig中的动态表名插件替换表名;分表数为1时不分表
+ */
+@Component
+public class OrderShards {
+
+    public static final String TABLE = "tb_voucher_order";
+
+    /**
+     * 访问未分表的原表,只用于迁移
+     */
+    public static final int BASE = -1;
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 分表数,必须是2的幂
+     */
+    @Value("${dp.order.shards:1}")
+    private int shards;
+
+    private int bits;
+
+    @PostConstruct
+    private void init() {
+        if (shards < 1 || Integer.bitCount(shards) != 1) {
+            throw new IllegalStateException("订单分表数必须是2的幂: " + shards);
+        }
+        bits = Integer.numberOfTrailingZeros(shards);
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    /**
+     * @return 订单ID中分表号占用的位数
+     */
+    public int bits() {
+        return bits;
+    }
+
+    public int shardOfUser(Long userId) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    public int shardOfOrder(long orderId) {
+        return (int) (orderId & (shards - 1));
+    }
+
+    public String table(int shard) {
+        return shards == 1 || shard == BASE ? TABLE : shardTable(shard);
+    }
+
+    public static String shardTable(int shard) {
+        return TABLE + "_" + shard;
+    }
+
+    /**
+     * 在指定分表上执行action,可以嵌套
+     */
+    public <T> T route(int shard, Supplier<T> action) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public void route(int shard, Runnable action) {
+        route(shard, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * 依次在每张分表上查询并合并结果,用于按优惠券统计等无法定位分表的后台任务
+     */
+    public <T> List<T> fanOut(IntFunction<List<T>> query) {
+        List<T> result = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            int current = shard;
+            result.addAll(route(current, () -> query.apply(current)));
+        }
+        return result;
+    }
+
+    /**
+     * 动态表名插件的回调,把订单表替换为当前指定的分表
+     */
+    public String dynamicTableName(String sql, String tableName) {
+        if (shards == 1 || !TABLE.equals(tableName)) {
+            return tableName;
+        }
+        Integer shard = CURRENT.get();
+        if (shard == null) {
+            throw new IllegalStateException("订单表已分表, 必须指定分表: " + sql);
+        }
+        return table(shard);
+    }
+}
@@ -0,0 +1,188 @@
+package com.dp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.dp.dto.OrderStatus;
+import com.dp.dto.Result;
+import com.dp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.dp.utils.RedisConstants.ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单的处理结果
+ * 订单消费者在事务提交后把结果写入短期有效的hash,客户端通过长轮询查询,查询流量不会到达数据库
+ * 等待中的请求不各自轮询Redis,而是由一个线程每隔poll-interval用一次pipeline批量查询所有等待中的订单
+ */
+@Slf4j
+@Component
+public class OrderStatusStore {
+
+    /**
+     * 处理结果在Redis中的保存时间(秒)
+     */
+    @Value("${dp.seckill.order-status.ttl:1800}")
+    private long ttl;
+
+    /**
+     * 批量查询等待中订单的间隔(毫秒)
+     */
+    @Value("${dp.seckill.order-status.poll-interval:200}")
+    private long pollInterval;
+
+    /**
+     * 长轮询的最长等待时间(毫秒)
+     */
+    @Value("${dp.seckill.order-status.max-wait:30000}")
+    private long maxWait;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Map<Long, Queue<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService poller;
+
+    public OrderStatusStore(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @PostConstruct
+    private void init() {
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-status-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        poller.shutdownNow();
+    }
+
+    /**
+     * 用一次pipeline写入一批订单的处理结果
+     */
+    public void save(Collection<VoucherOrder> voucherOrders, String status, String reason) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (VoucherOrder voucherOrder : voucherOrders) {
+                    String key = ORDER_STATUS_KEY + voucherOrder.getId();
+                    Map<String, String> values = new HashMap<>(8);
+                    values.put("userId", String.valueOf(voucherOrder.getUserId()));
+                    values.put("voucherId", String.valueOf(voucherOrder.getVoucherId()));
+                    values.put("status", status);
+                    values.put("reason", StrUtil.nullToEmpty(reason));
+                    stringConnection.hMSet(key, values);
+                    stringConnection.expire(key, ttl);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 结果只用于查询,写入失败不影响订单本身
+            log.error("写入订单处理结果失败, 状态: {}, 订单数: {}", status, voucherOrders.size(), e);
+        }
+    }
+
+    /**
+     * 查询订单的处理结果,timeout大于0且订单仍在处理中时最多等待timeout毫秒
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId, long timeout) {
+        long wait = Math.min(Math.max(timeout, 0), maxWait);
+        DeferredResult<Result> result = new DeferredResult<>(wait > 0 ? wait : null);
+        OrderStatus status = toStatus(orderId, userId, stringRedisTemplate.<String, String>opsForHash().entries(ORDER_STATUS_KEY + orderId));
+        if (status.isFinished() || wait == 0) {
+            result.setResult(Result.ok(status));
+            return result;
+        }
+        Waiter waiter = new Waiter(userId, result);
+        waiters.computeIfAbsent(orderId, k -> new ConcurrentLinkedQueue<>()).add(waiter);
+        // 超时仍未处理完,返回处理中
+        result.onTimeout(() -> result.setResult(Result.ok(status)));
+        result.onCompletion(() -> waiters.computeIfPresent(orderId, (k, queue) -> {
+            queue.remove(waiter);
+            return queue.isEmpty() ? null : queue;
+        }));
+        return result;
+    }
+
+    private void poll() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        try {
+            List<Long> orderIds = new ArrayList<>(waiters.keySet());
+            List<Object> entries = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                orderIds.forEach(orderId -> stringConnection.hGetAll(ORDER_STATUS_KEY + orderId));
+                return null;
+            });
+            for (int i = 0; i < orderIds.size(); i++) {
+                @SuppressWarnings("unchecked")
+                Map<String, String> values = (Map<String, String>) entries.get(i);
+                if (values == null || values.isEmpty()) {
+                    continue;
+                }
+                Queue<Waiter> queue = waiters.get(orderIds.get(i));
+                if (queue == null) {
+                    continue;
+                }
+                for (Waiter waiter : queue) {
+                    waiter.result.setResult(Result.ok(toStatus(orderIds.get(i), waiter.userId, values)));
+                }
+            }
+        } catch (Exception e) {
+            log.error("查询订单处理结果异常", e);
+        }
+    }
+
+    /**
+     * 没有结果或订单不属于当前用户时都视为处理中,不泄露其他用户的订单
+     */
+    private static OrderStatus toStatus(Long orderId, Long userId, Map<String, String> values) {
+        OrderStatus status = new OrderStatus();
+        status.setOrderId(orderId);
+        if (values.isEmpty() || !String.valueOf(userId).equals(values.get("userId"))) {
+            status.setStatus(OrderStatus.PENDING);
+            return status;
+        }
+        status.setVoucherId(Long.valueOf(values.get("voucherId")));
+        status.setStatus(values.get("status"));
+        status.setReason(StrUtil.emptyToNull(values.get("reason")));
+        return status;
+    }
+
+    private static class Waiter {
+        private final Long userId;
+        private final DeferredResult<Result> result;
+
+        private Waiter(Long userId, DeferredResult<Result> result) {
+            this.userId = userId;
+            this.result = result;
+        }
+    }
+}
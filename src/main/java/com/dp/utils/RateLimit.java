@@ -0,0 +1,53 @@
+package com.dp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 令牌桶限流,标注在返回 {@link com.dp.dto.Result} 的Controller方法上
+ * 同时限制每个资源的总速率和每个用户对同一资源的速率,被拒绝的请求直接返回失败,不会执行方法
+ * @see RateLimitAspect
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+
+    /**
+     * 限流名称,作为Redis key的一部分
+     */
+    String name();
+
+    /**
+     * 资源标识的SpEL表达式,例如"#voucherId",为空时整个方法共用一个桶
+     */
+    String key() default "";
+
+    /**
+     * 每个资源每秒生成的令牌数,不大于0时不限制
+     */
+    double rate() default 0;
+
+    /**
+     * 每个资源的桶容量,即允许的突发请求数
+     */
+    int burst() default 1;
+
+    /**
+     * 每个用户对每个资源每秒生成的令牌数,不大于0时不限制,未登录的请求不做用户级限流
+     */
+    double userRate() default 0;
+
+    /**
+     * 每个用户对每个资源的桶容量
+     */
+    int userBurst() default 1;
+
+    /**
+     * 被限流时返回的错误信息
+     */
+    String message() default "请求过于频繁,请稍后再试";
+}
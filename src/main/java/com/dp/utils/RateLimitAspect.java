@@ -0,0 +1,181 @@
+package com.dp.utils;
+
+import com.dp.dto.Result;
+import com.dp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.dp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * {@link RateLimit} 的实现
+ * 先用进程内的令牌桶预过滤: 单个节点的速率不可能合法地超过全局速率,超出部分无需访问Redis直接拒绝;
+ * 通过后再执行rate_limit.lua,在Redis中原子地检查并扣减资源桶和用户桶。
+ * 资源桶在Redis中拆分为多个分片,每个分片分得总速率的一部分,用户固定使用按用户id选择的分片,
+ * 用户桶与该分片带有相同的hash tag {资源:分片},一次脚本调用只访问一个slot;热点资源的请求分散到多个key上,不集中在一个Redis节点。
+ * Redis异常时放行,限流不应成为下单的单点故障
+ */
+@Slf4j
+@Aspect
+@Component
+public class RateLimitAspect {
+
+    public static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 本地令牌桶空闲超过该时间(毫秒)后回收
+     */
+    private static final long LOCAL_BUCKET_IDLE = 60000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 每个资源桶在Redis中的分片数
+     */
+    private final int shards;
+
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    private final Map<String, LocalBucket> localBuckets = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService cleaner;
+
+    public RateLimitAspect(StringRedisTemplate stringRedisTemplate, @Value("${dp.rate-limit.shards:8}") int shards) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.shards = Math.max(shards, 1);
+    }
+
+    @PostConstruct
+    private void init() {
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rate-limit-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(() -> {
+            long expireBefore = System.currentTimeMillis() - LOCAL_BUCKET_IDLE;
+            localBuckets.values().removeIf(bucket -> bucket.lastRefill < expireBefore);
+        }, LOCAL_BUCKET_IDLE, LOCAL_BUCKET_IDLE, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        cleaner.shutdownNow();
+    }
+
+    @Around("@annotation(rateLimit)")
+    public Object around(ProceedingJoinPoint joinPoint, RateLimit rateLimit) throws Throwable {
+        String resource = rateLimit.name() + ":" + resolveKey(joinPoint, rateLimit);
+        UserDTO user = UserHolder.getUser();
+        // 分片数不超过桶容量,保证每个分片至少有一个令牌
+        int count = rateLimit.rate() > 0 ? Math.max(1, Math.min(shards, rateLimit.burst())) : 1;
+        int shard = user == null ? ThreadLocalRandom.current().nextInt(count) : (int) Math.floorMod(user.getId(), (long) count);
+        String shardKey = RATE_LIMIT_KEY + "{" + resource + ":" + shard + "}";
+        List<String> keys = new ArrayList<>(2);
+        List<String> args = new ArrayList<>(4);
+        // 本地桶使用本节点时钟,Redis中的桶在脚本中使用Redis的时钟
+        long now = System.currentTimeMillis();
+        if (rateLimit.rate() > 0) {
+            if (!tryAcquireLocal(resource, rateLimit.rate(), rateLimit.burst(), now)) {
+                return Result.fail(rateLimit.message());
+            }
+            keys.add(shardKey);
+            args.add(String.valueOf(rateLimit.rate() / count));
+            args.add(String.valueOf((rateLimit.burst() + count - 1) / count));
+        }
+        if (rateLimit.userRate() > 0 && user != null) {
+            if (!tryAcquireLocal(resource + ":user:" + user.getId(), rateLimit.userRate(), rateLimit.userBurst(), now)) {
+                return Result.fail(rateLimit.message());
+            }
+            keys.add(shardKey + ":user:" + user.getId());
+            args.add(String.valueOf(rateLimit.userRate()));
+            args.add(String.valueOf(rateLimit.userBurst()));
+        }
+        if (keys.isEmpty()) {
+            return joinPoint.proceed();
+        }
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, args.toArray());
+        } catch (Exception e) {
+            log.error("限流脚本执行失败,放行请求: {}", keys, e);
+            return joinPoint.proceed();
+        }
+        if (result != null && result != 0) {
+            return Result.fail(rateLimit.message());
+        }
+        return joinPoint.proceed();
+    }
+
+    private String resolveKey(ProceedingJoinPoint joinPoint, RateLimit rateLimit) {
+        if (rateLimit.key().isEmpty()) {
+            return "";
+        }
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Expression expression = expressions.computeIfAbsent(rateLimit.key(), parser::parseExpression);
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(
+                joinPoint.getTarget(), method, joinPoint.getArgs(), parameterNameDiscoverer);
+        return String.valueOf(expression.getValue(context));
+    }
+
+    private boolean tryAcquireLocal(String key, double rate, int burst, long now) {
+        return localBuckets.computeIfAbsent(key, k -> new LocalBucket(burst, now)).tryAcquire(rate, burst, now);
+    }
+
+    private static class LocalBucket {
+        private double tokens;
+        private volatile long lastRefill;
+
+        private LocalBucket(int burst, long now) {
+            this.tokens = burst;
+            this.lastRefill = now;
+        }
+
+        private synchronized boolean tryAcquire(double rate, int burst, long now) {
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1000);
+                lastRefill = now;
+            }
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
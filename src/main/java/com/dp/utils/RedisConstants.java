@@ -11,18 +11,42 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
+    public static final Long CACHE_VOUCHER_TTL = 30L;
+    public static final String CACHE_VOUCHER_KEY = "cache:voucher:shop:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_RECONCILE_KEY = "lock:reconcile";
+    public static final String LOCK_PREHEAT_KEY = "lock:preheat";
+    public static final String LOCK_ORDER_MIGRATE_KEY = "lock:order:migrate";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:restock";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DLQ = "stream.orders.dlq";
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final Long ID_WORKER_TTL = 30L;
+    public static final String RATE_LIMIT_KEY = "rate:limit:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
 
-    public static final String TYPE_GEO_KEY = "type:geo";
+    public static final String SHOP_BLOOM_KEY = "bloom:shop";
+    public static final String BLOG_BLOOM_KEY = "bloom:blog";
 
-    public static final Long TYPE_GEO_TTL = 30L;
+    public static final String TYPE_VERSION_KEY = "type:version";
 
     public static final String FOLLOW_KEY = "follow:";
 
@@ -5,7 +5,11 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 @Data
-public class RedisData {
+public class RedisData<T> {
     private LocalDateTime expireTime;
-    private Object data;
+    private T data;
+    /**
+     * 重建数据的耗时(毫秒),提前刷新模式使用
+     */
+    private Long delta;
 }
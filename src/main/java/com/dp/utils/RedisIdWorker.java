@@ -1,12 +1,29 @@
 package com.dp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局ID生成器: 31位秒级时间戳 + 32位按天自增的序列号
+ * segment-size大于1时号段模式: 每次用INCRBY从Redis预留一段序列号在本地分配,
+ * 当前号段剩余不足1/5时异步预取下一段,避免每个ID都访问一次Redis
+ * 配置在dp.id.snowflake-prefixes中的前缀改由 {@link SnowflakeIdWorker} 在本地生成
+ */
+@Slf4j
 @Component
 public class RedisIdWorker {
 
@@ -20,24 +37,164 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public RedisIdWorker (StringRedisTemplate stringRedisTemplate) {
+    private final SnowflakeIdWorker snowflakeIdWorker;
+
+    /**
+     * 每次从Redis预留的序列号个数,不大于1时每个ID执行一次INCR
+     */
+    private final int segmentSize;
+
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 当天的日期及其格式化结果,跨天时才重新格式化
+     */
+    private volatile Day day = new Day(LocalDate.MIN, "");
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, SnowflakeIdWorker snowflakeIdWorker,
+                         @Value("${dp.id.segment-size:1}") int segmentSize) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.snowflakeIdWorker = snowflakeIdWorker;
+        this.segmentSize = segmentSize;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
     }
 
     public long nextId(String keyPrefix) {
+        return nextId(keyPrefix, 0, 0);
+    }
+
+    /**
+     * 生成低geneBits位为gene的ID,例如把分表号嵌入订单ID,只凭ID就能定位分表;
+     * 每天可用的序列号相应减少为 2^(32-geneBits) 个
+     */
+    public long nextId(String keyPrefix, int geneBits, long gene) {
+        if (snowflakeIdWorker.supports(keyPrefix)) {
+            return snowflakeIdWorker.nextId(geneBits, gene);
+        }
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowTimeStamp = now.toEpochSecond(ZoneOffset.UTC);
         long timeStamp = nowTimeStamp - BEGIN_TIMESTAMP;
         // 2.生成序列号
         // 获取当前日期,精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        long increment = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String key = "icr:" + keyPrefix + ":" + today(now.toLocalDate());
+        long increment = segmentSize > 1 ? nextSequence(keyPrefix, key) : stringRedisTemplate.opsForValue().increment(key);
+        if (increment >= 1L << (COUNT_BITS - geneBits)) {
+            throw new IllegalStateException("当天的序列号已用完: " + key);
+        }
         // 3.拼接并返回
-        return timeStamp << COUNT_BITS | increment;
+        return timeStamp << COUNT_BITS | increment << geneBits | gene;
+    }
+
+    private String today(LocalDate date) {
+        Day current = day;
+        if (!current.date.equals(date)) {
+            current = new Day(date, date.format(DATE_FORMATTER));
+            day = current;
+        }
+        return current.formatted;
     }
 
+    /**
+     * 从本地号段分配序列号,号段用完时切换到预取的下一段
+     */
+    private long nextSequence(String keyPrefix, String key) {
+        Segment segment = segments.get(keyPrefix);
+        if (segment == null || !segment.key.equals(key)) {
+            // 跨天后换用新一天的号段
+            segment = segments.compute(keyPrefix, (k, old) -> old != null && old.key.equals(key) ? old : new Segment(key));
+        }
+        while (true) {
+            Block block = segment.current;
+            if (block != null) {
+                long sequence = block.cursor.getAndIncrement();
+                if (sequence <= block.end) {
+                    // 剩余数量恰好等于阈值的线程只有一个,由它触发预取
+                    if (block.end - sequence == segmentSize / 5) {
+                        segment.prefetch();
+                    }
+                    return sequence;
+                }
+            }
+            segment.switchBlock(block);
+        }
+    }
+
+    private Block allocate(String key) {
+        Long end = stringRedisTemplate.opsForValue().increment(key, segmentSize);
+        if (end == null) {
+            throw new IllegalStateException("分配号段失败: " + key);
+        }
+        return new Block(end - segmentSize + 1, end);
+    }
+
+    private class Segment {
+        private final String key;
+        private volatile Block current;
+        private CompletableFuture<Block> next;
+
+        private Segment(String key) {
+            this.key = key;
+        }
+
+        private synchronized void prefetch() {
+            if (next == null) {
+                next = CompletableFuture.supplyAsync(() -> allocate(key), prefetchExecutor);
+            }
+        }
+
+        /**
+         * 当前号段仍是exhausted时换成下一段,优先使用预取结果,预取失败或未预取时同步分配
+         */
+        private synchronized void switchBlock(Block exhausted) {
+            if (current != exhausted) {
+                return;
+            }
+            CompletableFuture<Block> future = next;
+            next = null;
+            if (future != null) {
+                try {
+                    current = future.join();
+                    return;
+                } catch (Exception e) {
+                    log.warn("预取号段失败, 改为同步分配: {}", key, e);
+                }
+            }
+            current = allocate(key);
+        }
+    }
+
+    private static class Block {
+        private final long end;
+        private final AtomicLong cursor;
+
+        private Block(long start, long end) {
+            this.end = end;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    private static class Day {
+        private final LocalDate date;
+        private final String formatted;
+
+        private Day(LocalDate date, String formatted) {
+            this.date = date;
+            this.formatted = formatted;
+        }
+    }
 }
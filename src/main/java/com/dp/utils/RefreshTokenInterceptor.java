@@ -4,7 +4,7 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.dp.dto.UserDTO;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -14,7 +14,7 @@ import java.util.concurrent.TimeUnit;
 import static com.dp.utils.RedisConstants.LOGIN_USER_KEY;
 import static com.dp.utils.RedisConstants.LOGIN_USER_TTL;
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
     private final StringRedisTemplate stringRedisTemplate;
 
@@ -50,4 +50,10 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         // 移除用户
         UserHolder.removeUser();
     }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步请求(如长轮询)的第一次分派不会执行afterCompletion,在这里释放当前线程
+        UserHolder.removeUser();
+    }
 }
@@ -0,0 +1,203 @@
+package com.dp.utils;
+
+import com.dp.entity.SeckillVoucher;
+import com.dp.entity.Voucher;
+import com.dp.entity.VoucherOrder;
+import com.dp.service.ISeckillVoucherService;
+import com.dp.service.IVoucherOrderService;
+import com.dp.service.IVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.dp.utils.RedisConstants.LOCK_PREHEAT_KEY;
+
+/**
+ * 秒杀预热: 定期把即将开始的秒杀券写入Redis,不依赖创建秒杀券时Redis是否可用
+ * 包括库存分片、时间窗口、数据库中已有订单的下单集合,以及这些秒杀券所在店铺的优惠券列表缓存;
+ * 库存只在key不存在时写入,重复预热不会覆盖已经扣减的库存;写入了库存的秒杀券清除售罄标记
+ */
+@Slf4j
+@Component
+public class SeckillPreheater {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    @Value("${dp.seckill.preheat.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 预热间隔(毫秒)
+     */
+    @Value("${dp.seckill.preheat.interval:60000}")
+    private long interval;
+
+    /**
+     * 预热开始时间在未来多少分钟内的秒杀券
+     */
+    @Value("${dp.seckill.preheat.ahead-minutes:30}")
+    private long aheadMinutes;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final IVoucherService voucherService;
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final SeckillStockShards seckillStockShards;
+
+    private final SeckillWindows seckillWindows;
+
+    private final OrderShards orderShards;
+
+    private final SoldOutMarker soldOutMarker;
+
+    private ScheduledExecutorService scheduler;
+
+    public SeckillPreheater(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
+                            IVoucherService voucherService, ISeckillVoucherService seckillVoucherService,
+                            IVoucherOrderService voucherOrderService, SeckillStockShards seckillStockShards,
+                            SeckillWindows seckillWindows, OrderShards orderShards, SoldOutMarker soldOutMarker) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.voucherService = voucherService;
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.seckillStockShards = seckillStockShards;
+        this.seckillWindows = seckillWindows;
+        this.orderShards = orderShards;
+        this.soldOutMarker = soldOutMarker;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seckill-preheater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::preheatAll, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 执行一轮预热,其他节点正在预热时直接返回
+     */
+    void preheatAll() {
+        // 多个节点中只有一个执行预热
+        RLock lock = redissonClient.getLock(LOCK_PREHEAT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime until = now.plusMinutes(aheadMinutes);
+            long lastVoucherId = 0;
+            while (true) {
+                List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                        .select("voucher_id", "stock", "begin_time", "end_time")
+                        .between("begin_time", now, until).gt("voucher_id", lastVoucherId)
+                        .orderByAsc("voucher_id").last("limit " + CHUNK_SIZE).list();
+                if (!vouchers.isEmpty()) {
+                    preheat(vouchers);
+                }
+                if (vouchers.size() < CHUNK_SIZE) {
+                    break;
+                }
+                lastVoucherId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            }
+        } catch (Exception e) {
+            log.error("秒杀预热异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void preheat(List<SeckillVoucher> vouchers) {
+        List<Long> voucherIds = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        // 1.库存分片和时间窗口
+        Set<Long> stocked = seckillStockShards.initIfAbsent(vouchers.stream()
+                .collect(Collectors.toMap(SeckillVoucher::getVoucherId, SeckillVoucher::getStock)));
+        stocked.forEach(soldOutMarker::clear);
+        seckillWindows.saveAll(vouchers);
+        // 2.数据库中已有订单的用户写入下单集合
+        int users = preheatOrders(voucherIds);
+        // 3.店铺的优惠券列表
+        Set<Long> shopIds = voucherService.query().select("shop_id").in("id", voucherIds).list().stream()
+                .map(Voucher::getShopId).collect(Collectors.toSet());
+        voucherService.preheatVouchersOfShops(shopIds);
+        log.info("秒杀预热完成, 秒杀券: {}, 已有订单: {}, 店铺: {}", voucherIds.size(), users, shopIds.size());
+    }
+
+    private int preheatOrders(List<Long> voucherIds) {
+        int total = 0;
+        for (int shard = 0; shard < orderShards.shards(); shard++) {
+            total += preheatOrders(voucherIds, shard);
+        }
+        return total;
+    }
+
+    /**
+     * 按主键分页读取一张分表的订单,每页用一个pipeline写入各个下单集合分片
+     */
+    private int preheatOrders(List<Long> voucherIds, int shard) {
+        int total = 0;
+        long lastId = 0;
+        while (true) {
+            long fromId = lastId;
+            List<VoucherOrder> orders = orderShards.route(shard, () -> voucherOrderService.query()
+                    .select("id", "user_id", "voucher_id")
+                    .in("voucher_id", voucherIds).gt("id", fromId)
+                    .orderByAsc("id").last("limit " + CHUNK_SIZE).list());
+            if (!orders.isEmpty()) {
+                Map<String, List<String>> usersOfKey = new HashMap<>();
+                for (VoucherOrder order : orders) {
+                    String key = seckillStockShards.orderKey(order.getVoucherId(),
+                            seckillStockShards.shardOf(order.getVoucherId(), order.getUserId()));
+                    usersOfKey.computeIfAbsent(key, k -> new ArrayList<>()).add(order.getUserId().toString());
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    usersOfKey.forEach((key, users) -> stringConnection.sAdd(key, users.toArray(new String[0])));
+                    return null;
+                });
+                total += orders.size();
+            }
+            if (orders.size() < CHUNK_SIZE) {
+                return total;
+            }
+            lastId = orders.get(orders.size() - 1).getId();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.dp.utils;
+
+import com.dp.dto.ReconcileReport;
+import com.dp.entity.SeckillVoucher;
+import com.dp.entity.VoucherOrder;
+import com.dp.service.ISeckillVoucherService;
+import com.dp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.dp.utils.RedisConstants.LOCK_RECONCILE_KEY;
+import static com.dp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+
+/**
+ * 秒杀数据对账: 定期比较Redis(库存分片、下单集合)与MySQL(tb_seckill_voucher.stock、tb_voucher_order)
+ * 两边分块读取: 数据库按主键分页的普通SELECT不加锁,Redis用SSCAN遍历,不阻塞秒杀;
+ * 每个分片的库存和下单人数由脚本在同一次调用中读取,库存差异按这两个值计算
+ * 消息还在队列中时两边会短暂不一致,因此只修复连续两次对账都存在的差异:
+ * Redis已下单而数据库缺失的订单重新投递到消息队列,数据库已有而Redis缺失的下单记录补回Redis;
+ * 秒杀进行中Redis与数据库的读取之间仍有下单,库存差异不可靠,只在秒杀结束后补齐数据库库存
+ */
+@Slf4j
+@Component
+public class SeckillReconciler {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    /**
+     * 报告中最多列出的用户id个数
+     */
+    private static final int SAMPLE_SIZE = 100;
+
+    @Value("${dp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 对账间隔(毫秒),应大于消息从入队到写入数据库(包括认领重试)的最长耗时
+     */
+    @Value("${dp.seckill.reconcile.interval:300000}")
+    private long interval;
+
+    /**
+     * 是否自动修复,关闭时只生成报告
+     */
+    @Value("${dp.seckill.reconcile.repair:false}")
+    private boolean repair;
+
+    /**
+     * 对账结束时间在最近多少天内的秒杀券
+     */
+    @Value("${dp.seckill.reconcile.lookback-days:1}")
+    private int lookbackDays;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final SeckillStockShards seckillStockShards;
+
+    private final RedisIdWorker redisIdWorker;
+
+    private final OrderShards orderShards;
+
+    private volatile Map<Long, ReconcileReport> reports = Collections.emptyMap();
+
+    /**
+     * 上一次对账发现的差异,用于确认差异是否持续存在
+     */
+    private Map<Long, Diff> lastDiffs = Collections.emptyMap();
+
+    private ScheduledExecutorService scheduler;
+
+    public SeckillReconciler(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
+                             ISeckillVoucherService seckillVoucherService, IVoucherOrderService voucherOrderService,
+                             SeckillStockShards seckillStockShards, RedisIdWorker redisIdWorker,
+                             OrderShards orderShards) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.seckillStockShards = seckillStockShards;
+        this.redisIdWorker = redisIdWorker;
+        this.orderShards = orderShards;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seckill-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reconcileAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return 最近一次对账的结果
+     */
+    public List<ReconcileReport> reports() {
+        return reports.values().stream()
+                .sorted(Comparator.comparing(ReconcileReport::getVoucherId))
+                .collect(Collectors.toList());
+    }
+
+    private void reconcileAll() {
+        // 多个节点中只有一个执行对账
+        RLock lock = redissonClient.getLock(LOCK_RECONCILE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Map<Long, ReconcileReport> newReports = new HashMap<>();
+            Map<Long, Diff> newDiffs = new HashMap<>();
+            LocalDateTime since = LocalDateTime.now().minusDays(lookbackDays);
+            long lastVoucherId = 0;
+            while (true) {
+                List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                        .select("voucher_id", "stock", "end_time")
+                        .gt("end_time", since).gt("voucher_id", lastVoucherId)
+                        .orderByAsc("voucher_id").last("limit " + CHUNK_SIZE).list();
+                for (SeckillVoucher voucher : vouchers) {
+                    try {
+                        newReports.put(voucher.getVoucherId(), reconcile(voucher, newDiffs));
+                    } catch (Exception e) {
+                        log.error("秒杀券对账失败: {}", voucher.getVoucherId(), e);
+                    }
+                }
+                if (vouchers.size() < CHUNK_SIZE) {
+                    break;
+                }
+                lastVoucherId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            }
+            reports = newReports;
+            lastDiffs = newDiffs;
+        } catch (Exception e) {
+            log.error("秒杀对账异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReconcileReport reconcile(SeckillVoucher voucher, Map<Long, Diff> newDiffs) {
+        Long voucherId = voucher.getVoucherId();
+        ReconcileReport report = new ReconcileReport();
+        report.setVoucherId(voucherId);
+        report.setCheckTime(LocalDateTime.now());
+        // 1.Redis库存和下单人数
+        long[] stats = seckillStockShards.stats(voucherId);
+        if (stats == null) {
+            report.setRedisMissing(true);
+            return report;
+        }
+        long redisStock = stats[0];
+        long redisOrders = stats[1];
+        // 2.数据库订单,逐个分表按主键分页
+        Set<Long> dbUsers = new HashSet<>();
+        for (int shard = 0; shard < orderShards.shards(); shard++) {
+            long lastId = 0;
+            while (true) {
+                long fromId = lastId;
+                List<VoucherOrder> orders = orderShards.route(shard, () -> voucherOrderService.query()
+                        .select("id", "user_id")
+                        .eq("voucher_id", voucherId).gt("id", fromId)
+                        .orderByAsc("id").last("limit " + CHUNK_SIZE).list());
+                orders.forEach(order -> dbUsers.add(order.getUserId()));
+                if (orders.size() < CHUNK_SIZE) {
+                    break;
+                }
+                lastId = orders.get(orders.size() - 1).getId();
+            }
+        }
+        // 3.Redis下单集合,SSCAN可能返回重复元素,先去重
+        Set<Long> redisUsers = new HashSet<>();
+        for (String key : seckillStockShards.orderKeys(voucherId)) {
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                    .scan(key, ScanOptions.scanOptions().count(CHUNK_SIZE).build())) {
+                cursor.forEachRemaining(userId -> redisUsers.add(Long.valueOf(userId)));
+            }
+        }
+        // 4.比较
+        long dbStock = voucher.getStock();
+        long drift = (redisStock + redisOrders) - (dbStock + dbUsers.size());
+        Set<Long> missingInDb = redisUsers.stream().filter(id -> !dbUsers.contains(id)).collect(Collectors.toSet());
+        Set<Long> missingInRedis = dbUsers.stream().filter(id -> !redisUsers.contains(id)).collect(Collectors.toSet());
+        report.setRedisMissing(false);
+        report.setRedisStock(redisStock);
+        report.setRedisOrders(redisOrders);
+        report.setDbStock(dbStock);
+        report.setDbOrders((long) dbUsers.size());
+        report.setDrift(drift);
+        report.setMissingInDb(missingInDb.size());
+        report.setMissingInDbSample(missingInDb.stream().limit(SAMPLE_SIZE).collect(Collectors.toList()));
+        report.setMissingInRedis(missingInRedis.size());
+        report.setMissingInRedisSample(missingInRedis.stream().limit(SAMPLE_SIZE).collect(Collectors.toList()));
+        report.setRepaired(false);
+        Diff current = new Diff(drift, missingInDb, missingInRedis);
+        if (current.isEmpty()) {
+            return report;
+        }
+        newDiffs.put(voucherId, current);
+        log.warn("秒杀券对账存在差异: {}", report);
+        // 5.修复连续两次都存在的差异
+        Diff previous = lastDiffs.get(voucherId);
+        if (repair && previous != null) {
+            repair(voucherId, current.confirmedBy(previous), voucher.getEndTime().isBefore(report.getCheckTime()));
+            report.setRepaired(true);
+        }
+        return report;
+    }
+
+    private void repair(Long voucherId, Diff confirmed, boolean ended) {
+        // 数据库已有订单,Redis补回下单记录,防止用户重复下单
+        for (Long userId : confirmed.missingInRedis) {
+            stringRedisTemplate.opsForSet().add(
+                    seckillStockShards.orderKey(voucherId, seckillStockShards.shardOf(voucherId, userId)), userId.toString());
+        }
+        // 秒杀结束后数据库库存偏少时补齐,偏多时只报告,以免在Redis数据丢失时误改数据库
+        long restocked = ended && confirmed.drift > 0 ? confirmed.drift : 0;
+        if (restocked > 0) {
+            seckillVoucherService.update().setSql("stock = stock + " + restocked)
+                    .eq("voucher_id", voucherId).update();
+        }
+        // 丢失的订单重新投递,消费者会再次检查一人一单
+        for (Long userId : confirmed.missingInDb) {
+            Map<String, String> message = new HashMap<>(4);
+            message.put("userId", userId.toString());
+            message.put("voucherId", voucherId.toString());
+            message.put("id", String.valueOf(redisIdWorker.nextId("order", orderShards.bits(), orderShards.shardOfUser(userId))));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM, message);
+        }
+        log.warn("秒杀券对账已修复: {}, 补齐数据库库存: {}, 重新投递订单: {}, 补回Redis下单记录: {}",
+                voucherId, restocked, confirmed.missingInDb.size(), confirmed.missingInRedis.size());
+    }
+
+    private static class Diff {
+        private final long drift;
+        private final Set<Long> missingInDb;
+        private final Set<Long> missingInRedis;
+
+        private Diff(long drift, Set<Long> missingInDb, Set<Long> missingInRedis) {
+            this.drift = drift;
+            this.missingInDb = missingInDb;
+            this.missingInRedis = missingInRedis;
+        }
+
+        private boolean isEmpty() {
+            return drift == 0 && missingInDb.isEmpty() && missingInRedis.isEmpty();
+        }
+
+        /**
+         * 与上一次对账的差异取交集
+         */
+        private Diff confirmedBy(Diff previous) {
+            Set<Long> db = new HashSet<>(missingInDb);
+            db.retainAll(previous.missingInDb);
+            Set<Long> redis = new HashSet<>(missingInRedis);
+            redis.retainAll(previous.missingInRedis);
+            return new Diff(drift == previous.drift ? drift : 0, db, redis);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.dp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static com.dp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.dp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static com.dp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.dp.utils.RedisConstants.SECKILL_WINDOW_KEY;
+
+/**
+ * 秒杀库存分片
+ * 库存拆分到多个分片,下单用户集合按用户id分片,同一个用户总是落在同一个集合,一人一单的判断不受影响;
+ * 同一分片的库存、下单集合、时间窗口副本带有相同的hash tag {voucherId:shard},在Redis Cluster中位于同一个slot,
+ * 不同分片分布在不同的slot上,秒杀脚本每次只访问一个分片,不会出现CROSSSLOT
+ */
+@Component
+public class SeckillStockShards {
+
+    /**
+     * 扣减结果,3和4见 {@link SeckillWindows}
+     */
+    public static final int SUCCESS = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+    public static final int MISSING = 5;
+    private static final int RESERVED = 6;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    private static final DefaultRedisScript<Long> FALLBACK_SCRIPT;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> STATS_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        FALLBACK_SCRIPT = new DefaultRedisScript<>();
+        FALLBACK_SCRIPT.setLocation(new ClassPathResource("seckill_fallback.lua"));
+        FALLBACK_SCRIPT.setResultType(Long.class);
+        STATS_SCRIPT = new DefaultRedisScript<>();
+        STATS_SCRIPT.setLocation(new ClassPathResource("seckill_stats.lua"));
+        STATS_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 新建秒杀券使用的分片数
+     */
+    @Value("${dp.seckill.stock-shards:4}")
+    private int defaultShards;
+
+    /**
+     * 每张秒杀券的分片数,创建后不再变化,可以在本地缓存;Redis中还没有分片数时不缓存,等待创建或预热后写入
+     */
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    public SeckillStockShards(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public int shardCount(Long voucherId) {
+        Integer cached = shardCounts.get(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        String count = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (StrUtil.isBlank(count)) {
+            return 1;
+        }
+        int shards = Integer.parseInt(count);
+        shardCounts.put(voucherId, shards);
+        return shards;
+    }
+
+    /**
+     * 批量查询分片数,本地没有缓存的用一次MGET读取
+     * @return 秒杀券id -> 分片数
+     */
+    public Map<Long, Integer> shardCounts(Collection<Long> voucherIds) {
+        Map<Long, Integer> counts = new HashMap<>(voucherIds.size());
+        List<Long> uncached = new ArrayList<>();
+        for (Long voucherId : voucherIds) {
+            Integer cached = shardCounts.get(voucherId);
+            if (cached != null) {
+                counts.put(voucherId, cached);
+            } else {
+                uncached.add(voucherId);
+            }
+        }
+        if (uncached.isEmpty()) {
+            return counts;
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(
+                uncached.stream().map(id -> SECKILL_SHARDS_KEY + id).collect(Collectors.toList()));
+        for (int i = 0; i < uncached.size(); i++) {
+            String count = values == null ? null : values.get(i);
+            if (StrUtil.isBlank(count)) {
+                counts.put(uncached.get(i), 1);
+            } else {
+                int shards = Integer.parseInt(count);
+                shardCounts.put(uncached.get(i), shards);
+                counts.put(uncached.get(i), shards);
+            }
+        }
+        return counts;
+    }
+
+    public String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + hashTag(voucherId, shard);
+    }
+
+    public String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + hashTag(voucherId, shard);
+    }
+
+    public String windowKey(Long voucherId, int shard) {
+        return SECKILL_WINDOW_KEY + hashTag(voucherId, shard);
+    }
+
+    private static String hashTag(Long voucherId, int shard) {
+        return "{" + voucherId + ":" + shard + "}";
+    }
+
+    public int shardOf(Long voucherId, Long userId) {
+        return (int) Math.floorMod(userId, (long) shardCount(voucherId));
+    }
+
+    public List<String> stockKeys(Long voucherId) {
+        return stockKeys(voucherId, shardCount(voucherId));
+    }
+
+    /**
+     * @param count 已经读取的分片数,保证key的个数与调用方使用的分片数一致
+     */
+    public List<String> stockKeys(Long voucherId, int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(stockKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    public List<String> orderKeys(Long voucherId) {
+        int count = shardCount(voucherId);
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(orderKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 扣减一件库存并占用用户的下单资格
+     * 先在用户所在的分片执行秒杀脚本(时间窗口、一人一单、库存);该分片库存为0时脚本先占用下单资格,
+     * 再逐个尝试其他分片,每次调用只访问一个分片;所有分片都没有库存时释放下单资格
+     */
+    public Acquisition acquire(Long voucherId, Long userId) {
+        int count = shardCount(voucherId);
+        int home = shardOf(voucherId, userId);
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(windowKey(voucherId, home), stockKey(voucherId, home), orderKey(voucherId, home)),
+                userId.toString(), String.valueOf(count));
+        if (result == null || result != RESERVED) {
+            return new Acquisition(result == null ? MISSING : result.intValue(), home);
+        }
+        boolean missing = false;
+        for (int i = 1; i < count; i++) {
+            int shard = (home + i) % count;
+            Long fallback = stringRedisTemplate.execute(FALLBACK_SCRIPT, Collections.singletonList(stockKey(voucherId, shard)));
+            if (fallback != null && fallback == SUCCESS) {
+                return new Acquisition(SUCCESS, shard);
+            }
+            missing |= fallback == null || fallback == MISSING;
+        }
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, home), userId.toString());
+        return new Acquisition(missing ? MISSING : SOLD_OUT, home);
+    }
+
+    /**
+     * 撤销 {@link #acquire} 成功的结果: 归还库存并释放下单资格,用于订单消息写入失败时
+     */
+    public void release(Long voucherId, Long userId, Acquisition acquisition) {
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, acquisition.getShard()));
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, shardOf(voucherId, userId)), userId.toString());
+    }
+
+    /**
+     * 统计库存和下单人数,每个分片的库存和下单集合在同一次脚本调用中读取,两者之间没有读偏差
+     * @return {剩余库存, 下单人数}, 所有分片的库存都不存在时返回null
+     */
+    public long[] stats(Long voucherId) {
+        long stock = 0;
+        long orders = 0;
+        boolean exists = false;
+        for (int shard = 0; shard < shardCount(voucherId); shard++) {
+            List<?> result = stringRedisTemplate.execute(STATS_SCRIPT,
+                    Arrays.asList(stockKey(voucherId, shard), orderKey(voucherId, shard)));
+            long shardStock = ((Number) result.get(0)).longValue();
+            if (shardStock >= 0) {
+                exists = true;
+                stock += shardStock;
+            }
+            orders += ((Number) result.get(1)).longValue();
+        }
+        return exists ? new long[]{stock, orders} : null;
+    }
+
+    /**
+     * 初始化新秒杀券的库存,平均分配到各个分片
+     */
+    public void init(Long voucherId, int stock) {
+        int count = Math.max(defaultShards, 1);
+        shardCounts.put(voucherId, count);
+        Map<String, String> values = new HashMap<>(count + 1);
+        values.put(SECKILL_SHARDS_KEY + voucherId, String.valueOf(count));
+        int[] split = split(stock, count);
+        for (int i = 0; i < count; i++) {
+            values.put(stockKey(voucherId, i), String.valueOf(split[i]));
+        }
+        stringRedisTemplate.opsForValue().multiSet(values);
+    }
+
+    /**
+     * 批量预热尚未开始的秒杀券: 一次MGET读取已有的分片数,再用一个pipeline写入缺失的分片数和库存,已存在的key保持不变
+     * @param stocks 秒杀券id -> 数据库中的库存
+     * @return 写入了库存的秒杀券
+     */
+    public Set<Long> initIfAbsent(Map<Long, Integer> stocks) {
+        if (stocks.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<Long> voucherIds = new ArrayList<>(stocks.keySet());
+        List<String> counts = stringRedisTemplate.opsForValue().multiGet(
+                voucherIds.stream().map(id -> SECKILL_SHARDS_KEY + id).collect(Collectors.toList()));
+        for (int i = 0; i < voucherIds.size(); i++) {
+            String count = counts == null ? null : counts.get(i);
+            shardCounts.put(voucherIds.get(i), StrUtil.isBlank(count) ? Math.max(defaultShards, 1) : Integer.parseInt(count));
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long voucherId : voucherIds) {
+                int count = shardCount(voucherId);
+                stringConnection.setNX(SECKILL_SHARDS_KEY + voucherId, String.valueOf(count));
+                int[] split = split(stocks.get(voucherId), count);
+                for (int i = 0; i < count; i++) {
+                    stringConnection.setNX(stockKey(voucherId, i), String.valueOf(split[i]));
+                }
+            }
+            return null;
+        });
+        // 按写入顺序取出每张秒杀券各个库存分片的SETNX结果
+        Set<Long> written = new HashSet<>();
+        int index = 0;
+        for (Long voucherId : voucherIds) {
+            int count = shardCount(voucherId);
+            index++;
+            for (int i = 0; i < count; i++, index++) {
+                if (Boolean.TRUE.equals(results.get(index))) {
+                    written.add(voucherId);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 补充库存,平均分配到各个分片
+     */
+    public void addStock(Long voucherId, int stock) {
+        int count = shardCount(voucherId);
+        int[] split = split(stock, count);
+        for (int i = 0; i < count; i++) {
+            if (split[i] > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i), split[i]);
+            }
+        }
+    }
+
+    public static class Acquisition {
+        private final int code;
+        /**
+         * 扣减库存的分片
+         */
+        private final int shard;
+
+        private Acquisition(int code, int shard) {
+            this.code = code;
+            this.shard = shard;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+    }
+
+    private static int[] split(int stock, int count) {
+        int[] split = new int[count];
+        for (int i = 0; i < count; i++) {
+            split[i] = stock / count + (i < stock % count ? 1 : 0);
+        }
+        return split;
+    }
+}
@@ -0,0 +1,42 @@
+package com.dp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.dp.dto.Result;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 秒杀开始前和结束后的请求在进入限流和下单逻辑之前直接拒绝
+ */
+public class SeckillWindowInterceptor implements HandlerInterceptor {
+
+    private final SeckillWindows seckillWindows;
+
+    public SeckillWindowInterceptor(SeckillWindows seckillWindows) {
+        this.seckillWindows = seckillWindows;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (variables == null || variables.get("id") == null) {
+            return true;
+        }
+        int status = seckillWindows.check(Long.valueOf(variables.get("id")));
+        if (status == SeckillWindows.OPEN) {
+            return true;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(
+                Result.fail(status == SeckillWindows.NOT_STARTED ? "秒杀尚未开始" : "秒杀已经结束")));
+        return false;
+    }
+}
@@ -0,0 +1,131 @@
+package com.dp.utils;
+
+import com.dp.entity.SeckillVoucher;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀时间窗口
+ * 创建秒杀券时写入Redis,由seckill.lua原子地校验;各节点在本地缓存窗口,开始前和结束后的请求不访问Redis直接拒绝。
+ * 每个库存分片保存一份窗口副本,与该分片的库存位于同一个slot,必须在库存分片初始化之后保存
+ */
+@Component
+public class SeckillWindows {
+
+    /**
+     * 与seckill.lua的返回值一致
+     */
+    public static final int OPEN = 0;
+    public static final int NOT_STARTED = 3;
+    public static final int ENDED = 4;
+
+    /**
+     * Redis中没有窗口的秒杀券,隔一段时间(毫秒)再重新读取
+     */
+    private static final long UNKNOWN_TTL = 5000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillStockShards seckillStockShards;
+
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+    public SeckillWindows(StringRedisTemplate stringRedisTemplate, SeckillStockShards seckillStockShards) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillStockShards = seckillStockShards;
+    }
+
+    /**
+     * 保存秒杀券的时间窗口
+     */
+    public void save(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime) {
+        Window window = new Window(toMillis(beginTime), toMillis(endTime), Long.MAX_VALUE);
+        Map<String, String> values = new HashMap<>(2);
+        values.put("begin", String.valueOf(window.begin));
+        values.put("end", String.valueOf(window.end));
+        int count = seckillStockShards.shardCount(voucherId);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int shard = 0; shard < count; shard++) {
+                stringConnection.hMSet(seckillStockShards.windowKey(voucherId, shard), values);
+            }
+            return null;
+        });
+        windows.put(voucherId, window);
+    }
+
+    /**
+     * 用一个pipeline保存一批秒杀券的时间窗口
+     */
+    public void saveAll(Collection<SeckillVoucher> seckillVouchers) {
+        Map<Long, Integer> counts = new HashMap<>(seckillVouchers.size());
+        for (SeckillVoucher seckillVoucher : seckillVouchers) {
+            counts.put(seckillVoucher.getVoucherId(), seckillStockShards.shardCount(seckillVoucher.getVoucherId()));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (SeckillVoucher seckillVoucher : seckillVouchers) {
+                Map<String, String> values = new HashMap<>(2);
+                values.put("begin", String.valueOf(toMillis(seckillVoucher.getBeginTime())));
+                values.put("end", String.valueOf(toMillis(seckillVoucher.getEndTime())));
+                for (int shard = 0; shard < counts.get(seckillVoucher.getVoucherId()); shard++) {
+                    stringConnection.hMSet(seckillStockShards.windowKey(seckillVoucher.getVoucherId(), shard), values);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 按本地缓存的窗口判断当前能否下单,窗口未知时放行,由seckill.lua判断
+     * @return {@link #OPEN}、{@link #NOT_STARTED} 或 {@link #ENDED}
+     */
+    public int check(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Window window = windows.get(voucherId);
+        if (window == null || window.expireAt < now) {
+            window = load(voucherId, now);
+        }
+        if (now < window.begin) {
+            return NOT_STARTED;
+        }
+        return now > window.end ? ENDED : OPEN;
+    }
+
+    private Window load(Long voucherId, long now) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(seckillStockShards.windowKey(voucherId, 0), Arrays.asList("begin", "end"));
+        Window window = values.get(0) == null || values.get(1) == null
+                ? new Window(Long.MIN_VALUE, Long.MAX_VALUE, now + UNKNOWN_TTL)
+                // 窗口创建后不再变化
+                : new Window(Long.parseLong((String) values.get(0)), Long.parseLong((String) values.get(1)), Long.MAX_VALUE);
+        windows.put(voucherId, window);
+        return window;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static class Window {
+        private final long begin;
+        private final long end;
+        private final long expireAt;
+
+        private Window(long begin, long end, long expireAt) {
+            this.begin = begin;
+            this.end = end;
+            this.expireAt = expireAt;
+        }
+    }
+}
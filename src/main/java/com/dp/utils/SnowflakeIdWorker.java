@@ -0,0 +1,182 @@
+package com.dp.utils;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.dp.utils.RedisConstants.ID_WORKER_KEY;
+import static com.dp.utils.RedisConstants.ID_WORKER_TTL;
+
+/**
+ * 本地ID生成器: 41位毫秒时间戳 + 10位worker id + 12位序列号,生成ID时不访问网络
+ * worker id启动时从Redis租用并定时续租,保证同一时刻不会有两个实例使用同一个worker id;
+ * 时钟回拨时沿用上次的时间戳继续分配序列号,序列号用完则借用下一毫秒,不阻塞也不产生重复ID
+ */
+@Slf4j
+@Component
+public class SnowflakeIdWorker {
+
+    /**
+     * 开始时间戳(毫秒),与RedisIdWorker相同
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200000L;
+
+    private static final int WORKER_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    /**
+     * 时钟回拨超过该值(毫秒)时打印告警
+     */
+    private static final long ROLLBACK_WARN_MILLIS = 10;
+
+    public static final DefaultRedisScript<Long> LEASE_SCRIPT;
+
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 使用本生成器的key前缀,为空时不租用worker id
+     */
+    private final Set<String> prefixes;
+
+    private final String owner = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+
+    private volatile int workerId = -1;
+
+    private long lastTimestamp = -1;
+
+    private long sequence;
+
+    private ScheduledExecutorService heartbeat;
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate,
+                             @Value("${dp.id.snowflake-prefixes:}") String[] prefixes) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.prefixes = new HashSet<>(Arrays.asList(prefixes));
+    }
+
+    @PostConstruct
+    private void init() {
+        if (prefixes.isEmpty()) {
+            return;
+        }
+        workerId = lease();
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "id-worker-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = ID_WORKER_TTL / 3;
+        heartbeat.scheduleAtFixedRate(this::renew, period, period, TimeUnit.SECONDS);
+        log.info("已租用worker id: {}, 使用前缀: {}", workerId, prefixes);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (heartbeat == null) {
+            return;
+        }
+        heartbeat.shutdownNow();
+        // 只释放自己持有的租约
+        stringRedisTemplate.execute(SimpleRedisLock.UNLOCK_SCRIPT,
+                Collections.singletonList(ID_WORKER_KEY + workerId), owner);
+    }
+
+    /**
+     * @return keyPrefix是否配置为使用本生成器
+     */
+    public boolean supports(String keyPrefix) {
+        return prefixes.contains(keyPrefix);
+    }
+
+    public long nextId() {
+        return nextId(0, 0);
+    }
+
+    /**
+     * 生成低geneBits位为gene的ID,例如把分表号嵌入订单ID;每毫秒可分配的序列号相应减少为 2^(12-geneBits) 个
+     */
+    public synchronized long nextId(int geneBits, long gene) {
+        if (workerId < 0) {
+            throw new IllegalStateException("未租用worker id");
+        }
+        long timestamp = System.currentTimeMillis();
+        if (timestamp < lastTimestamp) {
+            if (lastTimestamp - timestamp > ROLLBACK_WARN_MILLIS) {
+                log.warn("时钟回拨{}毫秒", lastTimestamp - timestamp);
+            }
+            // 时钟回拨,沿用上次的时间戳
+            timestamp = lastTimestamp;
+        }
+        if (timestamp == lastTimestamp) {
+            sequence = (sequence + 1) & (SEQUENCE_MASK >> geneBits);
+            if (sequence == 0) {
+                // 本毫秒的序列号已用完,借用下一毫秒
+                timestamp = lastTimestamp + 1;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+        return (timestamp - BEGIN_TIMESTAMP) << (WORKER_BITS + SEQUENCE_BITS)
+                | (long) workerId << SEQUENCE_BITS
+                | sequence << geneBits
+                | gene;
+    }
+
+    /**
+     * 从0开始依次尝试占用worker id
+     */
+    private int lease() {
+        for (int id = 0; id <= MAX_WORKER_ID; id++) {
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, owner, ID_WORKER_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有可用的worker id");
+    }
+
+    /**
+     * 续租当前worker id,租约已被其他实例占用时(例如长时间GC后过期)改租新的worker id
+     */
+    private void renew() {
+        try {
+            Long result = stringRedisTemplate.execute(LEASE_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId), owner, String.valueOf(ID_WORKER_TTL));
+            if (result == null || result == 0) {
+                int old = workerId;
+                workerId = lease();
+                log.warn("worker id {} 已被其他实例占用, 改用 {}", old, workerId);
+            }
+        } catch (Exception e) {
+            log.error("续租worker id失败: {}", workerId, e);
+        }
+    }
+}
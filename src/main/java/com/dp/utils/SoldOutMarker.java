@@ -0,0 +1,89 @@
+package com.dp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.dp.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.dp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券售罄标记
+ * 某个节点发现库存为0后通过redis广播,所有节点在本地标记售罄,有效期内的请求不再访问redis;
+ * 补充库存、预热写入库存时清除标记,标记过期后也会重新访问redis确认,不会因为漏掉清除通知而永久无法购买
+ */
+@Component
+public class SoldOutMarker {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 售罄标记的有效期(毫秒)
+     */
+    @Value("${dp.seckill.sold-out-ttl:10000}")
+    private long ttl;
+
+    /**
+     * 秒杀券id -> 标记的过期时间
+     */
+    private final Map<Long, Long> soldOutVouchers = new ConcurrentHashMap<>();
+
+    public SoldOutMarker(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(
+                (message, pattern) -> soldOutVouchers.put(parseVoucherId(message.getBody()), System.currentTimeMillis() + ttl),
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        listenerContainer.addMessageListener(
+                (message, pattern) -> soldOutVouchers.remove(parseVoucherId(message.getBody())),
+                new ChannelTopic(SECKILL_RESTOCK_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOutVouchers.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOutVouchers.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄并通知其他节点,本节点的标记仍然有效时不再重复广播
+     */
+    public void markSoldOut(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Long previous = soldOutVouchers.put(voucherId, now + ttl);
+        if (previous == null || previous < now) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 清除售罄标记并通知其他节点
+     */
+    public void clear(Long voucherId) {
+        soldOutVouchers.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    private static Long parseVoucherId(byte[] body) {
+        return Long.valueOf(new String(body, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,7 @@
+-- 订单幂等写入: 一人一单和消息去重改由唯一索引保证,消费者不再需要分布式锁
+-- 执行前先确认没有重复订单:
+-- SELECT user_id, voucher_id, COUNT(*) FROM tb_voucher_order GROUP BY user_id, voucher_id HAVING COUNT(*) > 1;
+ALTER TABLE tb_voucher_order
+    ADD COLUMN `message_id` VARCHAR(32) NULL DEFAULT NULL COMMENT '订单消息在消息队列中的id,用于消费去重' AFTER `voucher_id`,
+    ADD UNIQUE KEY `uk_user_voucher` (`user_id`, `voucher_id`),
+    ADD UNIQUE KEY `uk_message_id` (`message_id`);
@@ -0,0 +1,11 @@
+-- 续租worker id: 仍由本实例持有时延长有效期,租约已过期则重新占用
+local owner = redis.call('get', KEYS[1])
+if owner == ARGV[1] then
+    return redis.call('expire', KEYS[1], ARGV[2])
+end
+if not owner then
+    redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2])
+    return 1
+end
+-- 已被其他实例占用
+return 0
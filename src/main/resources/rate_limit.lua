@@ -0,0 +1,33 @@
+-- 令牌桶限流,所有桶都有令牌时才一起扣减
+-- KEYS: 各个桶的key,调用方保证带有相同的hash tag,位于同一个slot
+-- ARGV[2i-1]/ARGV[2i]: 第i个桶的速率(个/秒)和容量
+-- 以Redis的时钟为准,避免各节点时钟不一致时多发令牌
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local tokens = {}
+for i, key in ipairs(KEYS) do
+    local rate = tonumber(ARGV[i * 2 - 1])
+    local burst = tonumber(ARGV[i * 2])
+    local bucket = redis.call('hmget', key, 'tokens', 'ts')
+    local current = tonumber(bucket[1])
+    if current == nil then
+        -- 新建的桶是满的
+        current = burst
+    else
+        local elapsed = math.max(0, now - tonumber(bucket[2]))
+        current = math.min(burst, current + elapsed * rate / 1000)
+    end
+    if current < 1 then
+        -- 返回被拒绝的桶的序号
+        return i
+    end
+    tokens[i] = current
+end
+for i, key in ipairs(KEYS) do
+    local rate = tonumber(ARGV[i * 2 - 1])
+    local burst = tonumber(ARGV[i * 2])
+    redis.call('hset', key, 'tokens', tostring(tokens[i] - 1), 'ts', tostring(now))
+    -- 桶装满后就不再需要保存
+    redis.call('pexpire', key, math.ceil(burst / rate * 1000) + 1000)
+end
+return 0
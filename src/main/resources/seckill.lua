@@ -1,27 +1,55 @@
-local voucherId = ARGV[1]
+-- 在用户所在的分片上扣减库存,三个key带有相同的hash tag,位于同一个slot
+-- KEYS[1]: 秒杀时间窗口副本,hash中begin/end为毫秒时间戳,不存在时不校验
+-- KEYS[2]: 库存
+-- KEYS[3]: 下单集合
+-- ARGV[1]: 用户id
+-- ARGV[2]: 分片数
+-- 返回 0:成功 1:库存为0 2:重复下单 3:未开始 4:已结束 5:库存不存在 6:本分片库存为0,已占用下单资格,需尝试其他分片
 
-local userId = ARGV[2]
+local userId = ARGV[1]
 
-local orderId = ARGV[3]
+local window = redis.call('hmget', KEYS[1], 'begin', 'end')
 
-local stockKey = 'seckill:stock:' .. voucherId
-
-local orderKey = 'seckill:order:' .. voucherId
-
-if (tonumber(redis.call('get', stockKey)) <= 0)
+if (window[1] and window[2])
 then
-    return 1
+    -- 以Redis的时钟为准,避免各节点时钟不一致
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1]))
+    then
+        return 3
+    end
+    if (now > tonumber(window[2]))
+    then
+        return 4
+    end
 end
 
-if (redis.call('sismember', orderKey, userId) == 1)
+if (redis.call('sismember', KEYS[3], userId) == 1)
 then
     return 2
 end
 
-redis.call('incrby', stockKey, -1)
+local stock = tonumber(redis.call('get', KEYS[2]))
+
+if (stock == nil)
+then
+    return 5
+end
+
+if (stock > 0)
+then
+    redis.call('incrby', KEYS[2], -1)
+    redis.call('sadd', KEYS[3], userId)
+    return 0
+end
 
-redis.call('sadd', orderKey, userId)
+if (tonumber(ARGV[2]) <= 1)
+then
+    return 1
+end
 
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 先占用下单资格,同一用户的并发请求不会在其他分片重复扣减
+redis.call('sadd', KEYS[3], userId)
 
-return 0
+return 6
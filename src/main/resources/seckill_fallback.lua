@@ -0,0 +1,19 @@
+-- 用户所在分片库存为0时,依次在其他分片扣减库存
+-- KEYS[1]: 库存
+-- 返回 0:成功 1:库存为0 5:库存不存在
+
+local stock = tonumber(redis.call('get', KEYS[1]))
+
+if (stock == nil)
+then
+    return 5
+end
+
+if (stock <= 0)
+then
+    return 1
+end
+
+redis.call('incrby', KEYS[1], -1)
+
+return 0
@@ -0,0 +1,10 @@
+-- 原子读取一个分片的库存和下单人数,两个key带有相同的hash tag,位于同一个slot
+-- KEYS[1]: 库存
+-- KEYS[2]: 下单集合
+-- 返回 {库存(不存在时为-1), 下单人数}
+local stock = redis.call('get', KEYS[1])
+if (not stock)
+then
+    stock = -1
+end
+return {tonumber(stock), redis.call('scard', KEYS[2])}
@@ -0,0 +1,50 @@
+package com.dp;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * 集成测试基类: 启动本地Redis进程和H2(MySQL模式)运行应用,不依赖外部的MySQL和Redis
+ * 继承它的测试共用同一个Spring上下文和Redis进程;关闭定时预热和对账,由测试直接调用
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.url=jdbc:h2:mem:dp-test;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.schema=classpath:schema-h2.sql",
+        "spring.datasource.initialization-mode=always",
+        "dp.seckill.reconcile.enabled=false",
+        "dp.seckill.preheat.enabled=false",
+        "dp.order.shards=4"
+})
+public abstract class EmbeddedStoreTestSupport {
+
+    private static RedisServer redisServer;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) throws IOException {
+        int port = startRedis();
+        registry.add("spring.redis.host", () -> "127.0.0.1");
+        registry.add("spring.redis.port", () -> port);
+        registry.add("dp.redisson.address", () -> "redis://127.0.0.1:" + port);
+    }
+
+    private static synchronized int startRedis() throws IOException {
+        if (redisServer == null) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            // JVM退出时才停止Redis,缓存的Spring上下文此时已关闭,消费者不会在Redis关闭后报错
+            redisServer = RedisServer.newRedisServer().port(port).setting("save \"\"").onShutdownForceStop(true).build();
+            redisServer.start();
+        }
+        return redisServer.ports().get(0);
+    }
+}
@@ -0,0 +1,116 @@
+package com.dp.service.impl;
+
+import com.dp.EmbeddedStoreTestSupport;
+import com.dp.dto.OrderStatus;
+import com.dp.entity.Voucher;
+import com.dp.service.ISeckillVoucherService;
+import com.dp.service.IVoucherService;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.dp.utils.RedisConstants.ORDER_STATUS_KEY;
+import static com.dp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.dp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VoucherOrderServiceImplTest extends EmbeddedStoreTestSupport {
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 同一批中一张优惠券库存不足时整批回滚,消费者立即逐条重试,不等待超时认领
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void retryBatchOneByOneOnStockShortage() throws InterruptedException {
+        Long shortVoucherId = createVoucher(2);
+        Long otherVoucherId = createVoucher(10);
+        // 订单id -> 优惠券id,前三笔订单争抢只有2个库存的优惠券
+        Map<Long, Long> orders = new LinkedHashMap<>();
+        orders.put(9_000_001L, shortVoucherId);
+        orders.put(9_000_002L, shortVoucherId);
+        orders.put(9_000_003L, shortVoucherId);
+        orders.put(9_000_004L, otherVoucherId);
+        // 在一个事务中写入,消费者一次读到整批
+        stringRedisTemplate.execute(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.multi();
+                orders.forEach((orderId, voucherId) -> {
+                    Map<String, String> message = new HashMap<>(4);
+                    message.put("userId", String.valueOf(orderId - 8_000_000L));
+                    message.put("voucherId", voucherId.toString());
+                    message.put("id", orderId.toString());
+                    operations.opsForStream().add(StreamRecords.string(message).withStreamKey(SECKILL_ORDER_STREAM));
+                });
+                return operations.exec();
+            }
+        });
+
+        // 远小于超时认领时间(min-idle),只有立即逐条重试才能在这段时间内处理完
+        Map<Long, String> statuses = awaitStatuses(orders.keySet(), TimeUnit.SECONDS.toMillis(10));
+        assertEquals(OrderStatus.CREATED, statuses.get(9_000_004L), "其他优惠券的订单应创建成功: " + statuses);
+        assertEquals(2, orders.keySet().stream().filter(id -> shortVoucherId.equals(orders.get(id)))
+                .filter(id -> OrderStatus.CREATED.equals(statuses.get(id))).count(), "库存不足的优惠券只能创建2笔订单: " + statuses);
+        assertEquals(1, statuses.values().stream().filter(OrderStatus.REJECTED::equals).count(),
+                "超出库存的订单应被拒绝: " + statuses);
+        assertEquals(0, seckillVoucherService.getById(shortVoucherId).getStock());
+        assertEquals(0L, stringRedisTemplate.opsForStream()
+                .pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP).getTotalPendingMessages(), "消息都已确认");
+    }
+
+    /**
+     * 等待订单都有处理结果,超时返回已有的结果
+     */
+    private Map<Long, String> awaitStatuses(Collection<Long> orderIds, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            Map<Long, String> statuses = new HashMap<>();
+            for (Long orderId : orderIds) {
+                Object status = stringRedisTemplate.opsForHash().get(ORDER_STATUS_KEY + orderId, "status");
+                if (status != null) {
+                    statuses.put(orderId, status.toString());
+                }
+            }
+            if (statuses.size() == orderIds.size() || System.currentTimeMillis() > deadline) {
+                return statuses;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private Long createVoucher(int stock) {
+        LocalDateTime beginTime = LocalDateTime.now().minusHours(1);
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("批量下单秒杀券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(stock);
+        voucher.setBeginTime(beginTime);
+        voucher.setEndTime(beginTime.plusHours(2));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+}
@@ -0,0 +1,98 @@
+package com.dp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CacheClientTest {
+
+    private static final int THREADS = 50;
+
+    private CacheClient cacheClient;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        // 关闭本地缓存,只验证并发合并
+        LocalCache localCache = new LocalCache(false, 16, 60);
+        cacheClient = new CacheClient(stringRedisTemplate, localCache, mock(RedisMessageListenerContainer.class),
+                new HotKeyDetector(), new CacheRebuildScheduler(1, 1));
+    }
+
+    @Test
+    void concurrentMissesLoadOnce() throws Exception {
+        AtomicInteger dbCalls = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<String>> futures = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return cacheClient.queryWithPassThrough("cache:test:", "lock:test:", 1L, String.class, id -> {
+                    dbCalls.incrementAndGet();
+                    // 模拟慢查询,让其余线程都进入等待
+                    sleep(200);
+                    return "value-" + id;
+                }, 30L, TimeUnit.MINUTES);
+            }));
+        }
+        start.countDown();
+        for (Future<String> future : futures) {
+            assertEquals("value-1", future.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertEquals(1, dbCalls.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void filteredIdSkipsLockAndNullValue() {
+        AtomicInteger dbCalls = new AtomicInteger();
+        String value = cacheClient.queryWithPassThrough("cache:test:", "lock:test:", 2L, String.class, id -> false, id -> {
+            dbCalls.incrementAndGet();
+            return null;
+        }, 30L, TimeUnit.MINUTES);
+        assertNull(value);
+        assertEquals(0, dbCalls.get());
+        // 只有一次GET,没有获取互斥锁,也没有写入空值
+        verify(stringRedisTemplate, times(1)).execute(any(RedisCallback.class));
+        verify(stringRedisTemplate, never()).opsForValue();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.dp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.dp.entity.Blog;
+import com.dp.entity.Shop;
+import com.dp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheCodecTest {
+
+    private static final List<CacheCodec> CODECS =
+            Arrays.asList(CacheCodecs.HUTOOL_JSON, CacheCodecs.JACKSON_JSON, CacheCodecs.SMILE);
+
+    @Test
+    void roundTrip() {
+        Shop shop = shop();
+        Blog blog = new Blog().setId(7L).setShopId(1L).setUserId(2L).setTitle("探店").setContent("好吃")
+                .setLiked(10).setComments(3).setCreateTime(LocalDateTime.now().withNano(0));
+        List<ShopType> types = shopTypes();
+        for (CacheCodec codec : CODECS) {
+            assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+            assertEquals(blog, codec.decode(codec.encode(blog), Blog.class));
+            assertEquals(types, codec.decodeList(codec.encode(types), ShopType.class));
+        }
+    }
+
+    @Test
+    void wrappedRoundTrip() {
+        RedisData<Shop> redisData = new RedisData<>();
+        redisData.setData(shop());
+        redisData.setDelta(12L);
+        redisData.setExpireTime(LocalDateTime.now().withNano(0));
+        for (CacheCodec codec : CODECS) {
+            RedisData<Shop> decoded = codec.decodeWrapped(codec.encodeWrapped(redisData), Shop.class);
+            assertEquals(redisData, decoded);
+        }
+    }
+
+    @Test
+    void hutoolReadsExistingFormat() {
+        RedisData<Shop> redisData = new RedisData<>();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.now().withNano(0));
+        byte[] bytes = JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+        assertEquals(redisData, CacheCodecs.HUTOOL_JSON.decodeWrapped(bytes, Shop.class));
+    }
+
+    @Test
+    void smileIsSmallerThanJson() {
+        List<ShopType> types = shopTypes();
+        int json = CacheCodecs.HUTOOL_JSON.encode(types).length;
+        int smile = CacheCodecs.SMILE.encode(types).length;
+        assertTrue(smile < json, "smile: " + smile + ", json: " + json);
+    }
+
+    private static Shop shop() {
+        return new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L).setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37)
+                .setOpenHours("10:00-22:00").setCreateTime(LocalDateTime.now().withNano(0));
+    }
+
+    private static List<ShopType> shopTypes() {
+        List<ShopType> types = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            ShopType type = new ShopType();
+            type.setId((long) i);
+            type.setName("类型" + i);
+            type.setIcon("/types/icon" + i + ".png");
+            type.setSort(i);
+            types.add(type);
+        }
+        return types;
+    }
+}
@@ -0,0 +1,44 @@
+package com.dp.utils;
+
+import com.dp.EmbeddedStoreTestSupport;
+import com.dp.entity.VoucherOrder;
+import com.dp.service.IVoucherOrderService;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderShardMigratorTest extends EmbeddedStoreTestSupport {
+
+    @Resource
+    private OrderShardMigrator orderShardMigrator;
+
+    @Resource
+    private OrderShards orderShards;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    /**
+     * 原表中的订单迁移到用户所在的分表,迁移前生成的订单id不含分表号,仍能按id查到
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void migrateLegacyOrders() {
+        long userId = 7L;
+        long orderId = 4001L;
+        VoucherOrder legacy = new VoucherOrder().setId(orderId).setUserId(userId).setVoucherId(999L);
+        orderShards.route(OrderShards.BASE, () -> voucherOrderService.save(legacy));
+        Map<String, Object> report = orderShardMigrator.migrate(4);
+        assertTrue(((Map<String, Long>) report.get("missing")).values().stream().allMatch(count -> count == 0),
+                "迁移后仍有缺失: " + report);
+        assertNotEquals(orderShards.shardOfUser(userId), orderShards.shardOfOrder(orderId));
+        assertTrue(voucherOrderService.queryOrder(orderId, userId).getSuccess(), "按id查询迁移后的订单");
+        // 重复执行不会再复制
+        assertEquals(0L, orderShardMigrator.migrate(4).get("copied"));
+    }
+}
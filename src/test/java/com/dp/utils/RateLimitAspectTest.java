@@ -0,0 +1,92 @@
+package com.dp.utils;
+
+import com.dp.dto.Result;
+import com.dp.dto.UserDTO;
+import io.lettuce.core.cluster.SlotHash;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RateLimitAspectTest {
+
+    private static final int SHARDS = 8;
+
+    private final List<List<String>> calls = new ArrayList<>();
+
+    private RateLimitAspect aspect;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        // 记录每次执行脚本时的KEYS
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any())).thenAnswer(invocation -> {
+            calls.add(invocation.getArgument(1));
+            return 0L;
+        });
+        aspect = new RateLimitAspect(stringRedisTemplate, SHARDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    /**
+     * 一次脚本调用中的资源桶和用户桶位于同一个slot,同一资源的不同用户分散到不同的slot
+     */
+    @Test
+    void keysOfOneCallShareASlot() throws Throwable {
+        Method method = Target.class.getMethod("seckill", Long.class);
+        RateLimit rateLimit = method.getAnnotation(RateLimit.class);
+        Set<Integer> slots = new HashSet<>();
+        for (long userId = 1; userId <= SHARDS; userId++) {
+            UserDTO user = new UserDTO();
+            user.setId(userId);
+            UserHolder.saveUser(user);
+            assertEquals("ok", aspect.around(joinPoint(method, 10L), rateLimit));
+            assertEquals(userId, calls.size());
+            List<String> called = calls.get(calls.size() - 1);
+            assertEquals(2, called.size());
+            int slot = SlotHash.getSlot(called.get(0));
+            assertEquals(slot, SlotHash.getSlot(called.get(1)), "CROSSSLOT: " + called);
+            slots.add(slot);
+        }
+        assertTrue(slots.size() > 1, "资源桶没有分片: " + slots);
+    }
+
+    private static ProceedingJoinPoint joinPoint(Method method, Object... args) throws Throwable {
+        MethodSignature signature = mock(MethodSignature.class);
+        when(signature.getMethod()).thenReturn(method);
+        ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.getArgs()).thenReturn(args);
+        when(joinPoint.getTarget()).thenReturn(new Target());
+        when(joinPoint.proceed()).thenReturn("ok");
+        return joinPoint;
+    }
+
+    static class Target {
+        @RateLimit(name = "seckill", key = "#voucherId", rate = 2000, burst = 2000, userRate = 1, userBurst = 2)
+        public Result seckill(Long voucherId) {
+            return Result.ok();
+        }
+    }
+}
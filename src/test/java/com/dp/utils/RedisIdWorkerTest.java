@@ -0,0 +1,93 @@
+package com.dp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RedisIdWorkerTest {
+
+    private static final int THREADS = 8;
+
+    private static final int IDS_PER_THREAD = 10000;
+
+    private static final int SEGMENT_SIZE = 1000;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void segmentIdsAreUniqueAndIncreasingPerThread() throws Exception {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        AtomicLong counter = new AtomicLong();
+        when(valueOperations.increment(anyString(), anyLong()))
+                .thenAnswer(invocation -> counter.addAndGet(invocation.getArgument(1)));
+        RedisIdWorker redisIdWorker = new RedisIdWorker(stringRedisTemplate,
+                new SnowflakeIdWorker(stringRedisTemplate, new String[0]), SEGMENT_SIZE);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<Long>>> futures = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                List<Long> ids = new ArrayList<>(IDS_PER_THREAD);
+                for (int j = 0; j < IDS_PER_THREAD; j++) {
+                    ids.add(redisIdWorker.nextId("order"));
+                }
+                return ids;
+            }));
+        }
+        Set<Long> all = new HashSet<>();
+        for (Future<List<Long>> future : futures) {
+            List<Long> ids = future.get(10, TimeUnit.SECONDS);
+            for (int j = 1; j < ids.size(); j++) {
+                assertTrue(ids.get(j) > ids.get(j - 1));
+            }
+            all.addAll(ids);
+        }
+        executor.shutdown();
+        assertEquals(THREADS * IDS_PER_THREAD, all.size());
+        // 每个号段只访问一次Redis,最多多预取一段
+        int segments = THREADS * IDS_PER_THREAD / SEGMENT_SIZE;
+        verify(valueOperations, atMost(segments + 1)).increment(anyString(), anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void geneIsEmbeddedInLowBits() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        AtomicLong counter = new AtomicLong();
+        when(valueOperations.increment(anyString(), anyLong()))
+                .thenAnswer(invocation -> counter.addAndGet(invocation.getArgument(1)));
+        RedisIdWorker redisIdWorker = new RedisIdWorker(stringRedisTemplate,
+                new SnowflakeIdWorker(stringRedisTemplate, new String[0]), SEGMENT_SIZE);
+
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < IDS_PER_THREAD; i++) {
+            long gene = i % 4;
+            long id = redisIdWorker.nextId("order", 2, gene);
+            assertEquals(gene, id & 3);
+            ids.add(id);
+        }
+        assertEquals(IDS_PER_THREAD, ids.size());
+    }
+}
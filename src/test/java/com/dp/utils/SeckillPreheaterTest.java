@@ -0,0 +1,73 @@
+package com.dp.utils;
+
+import com.dp.EmbeddedStoreTestSupport;
+import com.dp.entity.Voucher;
+import com.dp.service.IVoucherService;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class SeckillPreheaterTest extends EmbeddedStoreTestSupport {
+
+    private static final int STOCK = 100;
+
+    @Resource
+    private SeckillPreheater seckillPreheater;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private SoldOutMarker soldOutMarker;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 即将开始的秒杀券在Redis中缺失时由预热补齐并清除售罄标记,店铺优惠券列表使用Redis中的实时库存
+     */
+    @Test
+    void preheatUpcomingVoucher() {
+        Long voucherId = createVoucher(LocalDateTime.now().plusMinutes(10));
+        stringRedisTemplate.delete(seckillStockShards.stockKeys(voucherId));
+        soldOutMarker.markSoldOut(voucherId);
+        seckillPreheater.preheatAll();
+        assertFalse(soldOutMarker.isSoldOut(voucherId), "预热写入库存后应清除售罄标记");
+        long redisStock = stringRedisTemplate.opsForValue().multiGet(seckillStockShards.stockKeys(voucherId)).stream()
+                .filter(Objects::nonNull).mapToLong(Long::parseLong).sum();
+        assertEquals(STOCK, redisStock, "预热后的库存");
+
+        // 重复预热不覆盖已扣减的库存
+        stringRedisTemplate.opsForValue().decrement(seckillStockShards.stockKey(voucherId, 0));
+        seckillPreheater.preheatAll();
+        List<?> vouchers = (List<?>) voucherService.queryVoucherOfShop(1L).getData();
+        Object stock = vouchers.stream().map(v -> (Voucher) v).filter(v -> voucherId.equals(v.getId()))
+                .findFirst().map(Voucher::getStock).orElse(null);
+        assertEquals(STOCK - 1, stock, "列表中的库存应为Redis中的实时库存");
+    }
+
+    private Long createVoucher(LocalDateTime beginTime) {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("预热秒杀券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(STOCK);
+        voucher.setBeginTime(beginTime);
+        voucher.setEndTime(beginTime.plusHours(2));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+}
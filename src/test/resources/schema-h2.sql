@@ -0,0 +1,141 @@
+-- 测试用的最小表结构(H2,MySQL模式),只包含应用启动、秒杀流程和订单分表用到的表
+CREATE TABLE IF NOT EXISTS tb_shop (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  name VARCHAR(128),
+  type_id BIGINT,
+  images VARCHAR(1024),
+  area VARCHAR(128),
+  address VARCHAR(255),
+  x DOUBLE,
+  y DOUBLE,
+  avg_price BIGINT,
+  sold INT,
+  comments INT,
+  score INT,
+  open_hours VARCHAR(32),
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_shop_type (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  name VARCHAR(32),
+  icon VARCHAR(255),
+  sort INT,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_blog (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  shop_id BIGINT,
+  user_id BIGINT,
+  title VARCHAR(255),
+  images VARCHAR(2048),
+  content VARCHAR(2048),
+  liked INT DEFAULT 0,
+  comments INT DEFAULT 0,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_voucher (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  shop_id BIGINT,
+  title VARCHAR(255),
+  sub_title VARCHAR(255),
+  rules VARCHAR(1024),
+  pay_value BIGINT,
+  actual_value BIGINT,
+  type INT DEFAULT 0,
+  status INT DEFAULT 1,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_seckill_voucher (
+  voucher_id BIGINT PRIMARY KEY,
+  stock INT NOT NULL,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  begin_time TIMESTAMP,
+  end_time TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_voucher_order (
+  id BIGINT PRIMARY KEY,
+  user_id BIGINT NOT NULL,
+  voucher_id BIGINT NOT NULL,
+  message_id VARCHAR(32),
+  pay_type INT DEFAULT 1,
+  status INT DEFAULT 1,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  pay_time TIMESTAMP,
+  use_time TIMESTAMP,
+  refund_time TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  UNIQUE KEY uk_user_voucher (user_id, voucher_id),
+  UNIQUE KEY uk_message_id (message_id)
+);
+
+-- 订单分表,与 tb_voucher_order 结构相同;H2不支持 CREATE TABLE ... LIKE,在这里预先建好
+CREATE TABLE IF NOT EXISTS tb_voucher_order_0 (
+  id BIGINT PRIMARY KEY,
+  user_id BIGINT NOT NULL,
+  voucher_id BIGINT NOT NULL,
+  message_id VARCHAR(32),
+  pay_type INT DEFAULT 1,
+  status INT DEFAULT 1,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  pay_time TIMESTAMP,
+  use_time TIMESTAMP,
+  refund_time TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  UNIQUE KEY uk_user_voucher_0 (user_id, voucher_id),
+  UNIQUE KEY uk_message_id_0 (message_id)
+);
+CREATE TABLE IF NOT EXISTS tb_voucher_order_1 (
+  id BIGINT PRIMARY KEY,
+  user_id BIGINT NOT NULL,
+  voucher_id BIGINT NOT NULL,
+  message_id VARCHAR(32),
+  pay_type INT DEFAULT 1,
+  status INT DEFAULT 1,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  pay_time TIMESTAMP,
+  use_time TIMESTAMP,
+  refund_time TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  UNIQUE KEY uk_user_voucher_1 (user_id, voucher_id),
+  UNIQUE KEY uk_message_id_1 (message_id)
+);
+CREATE TABLE IF NOT EXISTS tb_voucher_order_2 (
+  id BIGINT PRIMARY KEY,
+  user_id BIGINT NOT NULL,
+  voucher_id BIGINT NOT NULL,
+  message_id VARCHAR(32),
+  pay_type INT DEFAULT 1,
+  status INT DEFAULT 1,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  pay_time TIMESTAMP,
+  use_time TIMESTAMP,
+  refund_time TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  UNIQUE KEY uk_user_voucher_2 (user_id, voucher_id),
+  UNIQUE KEY uk_message_id_2 (message_id)
+);
+CREATE TABLE IF NOT EXISTS tb_voucher_order_3 (
+  id BIGINT PRIMARY KEY,
+  user_id BIGINT NOT NULL,
+  voucher_id BIGINT NOT NULL,
+  message_id VARCHAR(32),
+  pay_type INT DEFAULT 1,
+  status INT DEFAULT 1,
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  pay_time TIMESTAMP,
+  use_time TIMESTAMP,
+  refund_time TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  UNIQUE KEY uk_user_voucher_3 (user_id, voucher_id),
+  UNIQUE KEY uk_message_id_3 (message_id)
+);